@@ -1,138 +1,313 @@
-/*
- * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
- * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
- */
-package com.mycompany.tombrophy_client;
-import java.io.*;
-import java.net.*;
-import java.nio.charset.*;
-import java.time.*;
-import java.time.format.*;
-import java.util.*;
-/**
- *
- * @author tombr
- */
-public class HTTPImporter {
-    private static final DateTimeFormatter[] DATE_FMTS = new DateTimeFormatter[] {
-        new DateTimeFormatterBuilder().parseCaseInsensitive().appendPattern("d MMMM yyyy").toFormatter(Locale.ENGLISH),
-        DateTimeFormatter.ISO_LOCAL_DATE
-    };
-    
-    private static final DateTimeFormatter[] TIME_FMTS = new DateTimeFormatter[] {
-        new DateTimeFormatterBuilder().parseCaseInsensitive().appendPattern("h a").toFormatter(Locale.ENGLISH),     
-        new DateTimeFormatterBuilder().parseCaseInsensitive().appendPattern("h:mm a").toFormatter(Locale.ENGLISH),  
-        DateTimeFormatter.ofPattern("HH:mm")                                                                         
-    };
-    
-    public static void importEventsFromHttp(String urlString, PrintWriter toServer, BufferedReader fromServer) {
-        int imported = 0;
-        int skipped  = 0;
-        
-        Map<String, String> latestReplyByDate = new LinkedHashMap<>();
-
-        try {
-            URL url = new URL(urlString);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET"); // <-- HTTP GET
-            conn.setInstanceFollowRedirects(true);
-            conn.setRequestProperty("User-Agent", "EventBoardClient/1.0");
-            conn.setRequestProperty("Accept", "text/plain");
-            conn.setConnectTimeout(8000);
-            conn.setReadTimeout(8000);
-
-            int code = conn.getResponseCode();
-            if (code >= 400) {
-                System.out.println("Import failed: HTTP " + code);
-                return;
-            }
-
-            try (BufferedReader r = new BufferedReader(
-                    new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
-
-                String line;
-                int lineNo = 0;
-
-                while ((line = r.readLine()) != null) {
-                    lineNo++;
-                    line = line.trim();
-                    if (line.isEmpty()) continue;
-
-                    String[] parts = line.split(";", -1);
-                    if (parts.length != 3) {
-                        System.out.println("Skipped line " + lineNo + ": needs exactly 3 fields separated by ';'");
-                        skipped++;
-                        continue;
-                    }
-
-                    String date = parts[0].trim();
-                    String time = parts[1].trim();
-                    String desc = parts[2].trim();
-
-                    if (!isValidDate(date)) {
-                        System.out.println("Skipped line " + lineNo + ": bad date '" + date + "' (e.g., '2 November 2025' or '2025-11-02')");
-                        skipped++;
-                        continue;
-                    }
-                    if (!isValidTime(time)) {
-                        System.out.println("Skipped line " + lineNo + ": bad time '" + time + "' (e.g., '6 pm', '7:30 pm' or '18:00')");
-                        skipped++;
-                        continue;
-                    }
-                    if (desc.isEmpty()) {
-                        System.out.println("Skipped line " + lineNo + ": description is empty");
-                        skipped++;
-                        continue;
-                    }
-
-                    // Spec: send to server as-is (don’t reformat)
-                    String cmd = "add; " + date + "; " + time + "; " + desc;
-                    toServer.println(cmd);
-                    toServer.flush();
-
-                    String reply = fromServer.readLine();
-                    String safeReply = (reply != null ? reply : "(no reply from server)");
-                    
-                    latestReplyByDate.put(date, safeReply);
-                    
-                    imported++;
-                }
-            }
-            
-            for (String reply : latestReplyByDate.values()) {
-                System.out.println(reply);
-            }
-
-            System.out.println("Imported: " + imported + "; Skipped: " + skipped);
-
-        } catch (MalformedURLException e) {
-            System.out.println("Import failed: bad URL");
-        } catch (FileNotFoundException e) {
-            System.out.println("Import failed: 404 Not Found (check Raw link)");
-        } catch (IOException e) {
-            System.out.println("Import failed: " + e.getMessage());
-        }
-    }
-
-    private static boolean isValidDate(String s) {
-        for (DateTimeFormatter f : DATE_FMTS) {
-            try { 
-                LocalDate.parse(s, f); return true; 
-            } catch (DateTimeException ignored) {
-                
-            }
-        }
-        return false;
-    }
-
-    private static boolean isValidTime(String s) {
-        for (DateTimeFormatter f : TIME_FMTS) {
-            try { LocalTime.parse(s, f); 
-                return true; 
-            } catch (DateTimeException ignored) {
-                
-            }
-        }
-        return false;
-    }
-}
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_client;
+import com.mycompany.tombrophy_server.EventDates;
+import java.io.*;
+import java.net.*;
+import java.net.http.*;
+import java.nio.charset.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+/**
+ * Imports "date; time; description" lines from one or more URLs. Each URL is
+ * streamed on its own virtual thread and cut into chunks that are validated
+ * in parallel; the calling thread sends the valid lines to the server in
+ * "batch; n" envelopes. The queue between them is bounded, so when the server
+ * falls behind the readers stop reading instead of buffering whole files.
+ * It works the same over a text or a binary ServerConnection.
+ *
+ * @author tombr
+ */
+public class HTTPImporter {
+    private static final HttpClient HTTP = HttpClient.newBuilder()
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(Duration.ofSeconds(8))
+            .build();
+
+    // Lines per "batch; n" envelope, and how many batches can be in flight before we wait for a reply
+    private static final int BATCH_SIZE = 500;
+    private static final int MAX_BATCHES_IN_FLIGHT = 8;
+    // Chunks read but not yet sent; a full queue blocks the readers
+    private static final int MAX_CHUNKS_QUEUED = 16;
+    private static final Pattern FAILED_COUNT = Pattern.compile("(\\d+) failed");
+    // Sends of one batch before a THROTTLED reply counts it as failed
+    private static final int MAX_ATTEMPTS = 5;
+
+    // A run of lines from one URL after validation. The last chunk from each URL has end set.
+    private static final class Chunk {
+        final List<String> commands = new ArrayList<>();
+        final List<String> dates = new ArrayList<>();
+        final List<String> messages = new ArrayList<>();
+        int skipped;
+        boolean end;
+    }
+
+    // A batch that has been sent and not answered yet, kept in case it has to be sent again
+    private static final class Batch {
+        final List<String> commands;
+        int attempts;
+
+        Batch(List<String> commands) {
+            this.commands = commands;
+        }
+    }
+
+    public static void importEventsFromHttp(String urlString, ServerConnection server) {
+        importEventsFromHttp(List.of(urlString), server);
+    }
+
+    public static void importEventsFromHttp(List<String> urls, ServerConnection server) {
+        int imported = 0;
+        int skipped  = 0;
+        // Lines we sent that the server turned down
+        int rejected = 0;
+
+        // Dates in the order they first showed up, so we can list them once at the end
+        Set<String> dates = new LinkedHashSet<>();
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        // Replies come back in the order batches were sent
+        Deque<Batch> inFlight = new ArrayDeque<>();
+
+        BlockingQueue<Future<Chunk>> chunks = new ArrayBlockingQueue<>(MAX_CHUNKS_QUEUED);
+        List<Thread> readers = new ArrayList<>();
+        for (String url : urls) {
+            // Only say which URL a message is about when there is more than one
+            String source = urls.size() > 1 ? url + ": " : "";
+            readers.add(Thread.ofVirtual().name("http-import-", readers.size())
+                    .start(() -> fetch(url, source, chunks)));
+        }
+
+        try {
+            int open = readers.size();
+            while (open > 0) {
+                Chunk chunk = chunks.take().get();
+                for (String message : chunk.messages) {
+                    System.out.println(message);
+                }
+                skipped += chunk.skipped;
+                for (int i = 0; i < chunk.commands.size(); i++) {
+                    batch.add(chunk.commands.get(i));
+                    dates.add(chunk.dates.get(i));
+                    imported++;
+                    if (batch.size() == BATCH_SIZE) {
+                        rejected += sendBatch(batch, server, inFlight);
+                    }
+                }
+                if (chunk.end) {
+                    open--;
+                }
+            }
+            if (!batch.isEmpty()) {
+                rejected += sendBatch(batch, server, inFlight);
+            }
+            while (!inFlight.isEmpty()) {
+                rejected += readBatchReply(server, inFlight);
+            }
+            imported -= rejected;
+            skipped += rejected;
+
+            // One list per date, all sent before reading any reply, tagged so replies can be checked
+            List<String> dateList = new ArrayList<>(dates);
+            for (int i = 0; i < dateList.size(); i++) {
+                server.send("#" + i + " list; " + dateList.get(i));
+            }
+            server.flush();
+            for (int i = 0; i < dateList.size(); i++) {
+                String reply = server.readReply();
+                if (reply == null) {
+                    System.out.println("(no reply from server)");
+                    break;
+                }
+                String tag = "#" + i + " ";
+                System.out.println(reply.startsWith(tag) ? reply.substring(tag.length()) : reply);
+            }
+
+            System.out.println("Imported: " + imported + "; Skipped: " + skipped);
+
+        } catch (IOException e) {
+            System.out.println("Import failed: " + e.getMessage());
+        } catch (ExecutionException e) {
+            System.out.println("Import failed: " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Import interrupted");
+        } finally {
+            // Readers still blocked on a full queue or a download have nobody left to read from them
+            for (Thread reader : readers) {
+                reader.interrupt();
+            }
+        }
+    }
+
+    // Streams one URL into the queue as validation futures, then queues its end marker
+    private static void fetch(String urlString, String source, BlockingQueue<Future<Chunk>> chunks) {
+        Chunk last = new Chunk();
+        last.end = true;
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(urlString))
+                    .GET()
+                    .header("User-Agent", "EventBoardClient/1.0")
+                    .header("Accept", "text/plain")
+                    .timeout(Duration.ofSeconds(8))
+                    .build();
+            HttpResponse<InputStream> response = HTTP.send(request, HttpResponse.BodyHandlers.ofInputStream());
+
+            int code = response.statusCode();
+            if (code >= 400) {
+                response.body().close();
+                last.messages.add(source + (code == 404 ? "Import failed: 404 Not Found (check Raw link)" : "Import failed: HTTP " + code));
+                return;
+            }
+
+            try (BufferedReader r = new BufferedReader(
+                    new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+
+                List<String> lines = new ArrayList<>(BATCH_SIZE);
+                int firstLine = 1;
+                String line;
+                while ((line = r.readLine()) != null) {
+                    lines.add(line);
+                    if (lines.size() == BATCH_SIZE) {
+                        if (!enqueue(chunks, validateAsync(source, lines, firstLine))) {
+                            return;
+                        }
+                        firstLine += lines.size();
+                        lines = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+                if (!lines.isEmpty() && !enqueue(chunks, validateAsync(source, lines, firstLine))) {
+                    return;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            last.messages.add(source + "Import failed: bad URL");
+        } catch (IOException e) {
+            last.messages.add(source + "Import failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!Thread.currentThread().isInterrupted()) {
+                enqueue(chunks, CompletableFuture.completedFuture(last));
+            }
+        }
+    }
+
+    // False once the import has been abandoned and the reader should stop
+    private static boolean enqueue(BlockingQueue<Future<Chunk>> chunks, Future<Chunk> chunk) {
+        try {
+            chunks.put(chunk);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static Future<Chunk> validateAsync(String source, List<String> lines, int firstLine) {
+        return CompletableFuture.supplyAsync(() -> validate(source, lines, firstLine));
+    }
+
+    private static Chunk validate(String source, List<String> lines, int firstLine) {
+        Chunk chunk = new Chunk();
+        for (int i = 0; i < lines.size(); i++) {
+            int lineNo = firstLine + i;
+            String line = lines.get(i).trim();
+            if (line.isEmpty()) continue;
+
+            int first = line.indexOf(';');
+            int second = first < 0 ? -1 : line.indexOf(';', first + 1);
+            if (second < 0 || line.indexOf(';', second + 1) >= 0) {
+                chunk.messages.add(source + "Skipped line " + lineNo + ": needs exactly 3 fields separated by ';'");
+                chunk.skipped++;
+                continue;
+            }
+
+            String rawDate = line.substring(0, first).trim();
+            String rawTime = line.substring(first + 1, second).trim();
+            String desc = line.substring(second + 1).trim();
+
+            // Checked and respelled by the same code the server uses, so "2025-11-02; 18:00"
+            // is sent as "2 November 2025; 6 pm" and can't be turned down or stored twice
+            String date = EventDates.normalizeDate(rawDate);
+            String time = EventDates.normalizeTime(rawTime);
+            if (date == null) {
+                chunk.messages.add(source + "Skipped line " + lineNo + ": bad date '" + rawDate + "' (e.g., '2 November 2025' or '2025-11-02')");
+                chunk.skipped++;
+                continue;
+            }
+            if (time == null) {
+                chunk.messages.add(source + "Skipped line " + lineNo + ": bad time '" + rawTime + "' (e.g., '6 pm', '7:30 pm' or '18:00')");
+                chunk.skipped++;
+                continue;
+            }
+            if (desc.isEmpty()) {
+                chunk.messages.add(source + "Skipped line " + lineNo + ": description is empty");
+                chunk.skipped++;
+                continue;
+            }
+
+            chunk.commands.add("add; " + date + "; " + time + "; " + desc);
+            chunk.dates.add(date);
+        }
+        return chunk;
+    }
+
+    // Sends the batch without waiting for its reply, unless too many are already in flight.
+    // Returns how many lines the server turned down in the replies it had to read.
+    private static int sendBatch(List<String> batch, ServerConnection server, Deque<Batch> inFlight) throws IOException {
+        int failed = 0;
+        while (inFlight.size() >= MAX_BATCHES_IN_FLIGHT) {
+            failed += readBatchReply(server, inFlight);
+        }
+        send(new Batch(new ArrayList<>(batch)), server, inFlight);
+        batch.clear();
+        return failed;
+    }
+
+    private static void send(Batch batch, ServerConnection server, Deque<Batch> inFlight) throws IOException {
+        server.send("batch; " + batch.commands.size());
+        for (String cmd : batch.commands) {
+            server.send(cmd);
+        }
+        server.flush();
+        batch.attempts++;
+        inFlight.add(batch);
+    }
+
+    // Reads the reply to the oldest batch in flight and returns how many of its lines failed,
+    // as "BATCH n: ... applied, ... unchanged, ... failed" says. A THROTTLED error means none
+    // were applied, so the batch goes again after the wait the server asked for; any other
+    // error fails the whole batch.
+    private static int readBatchReply(ServerConnection server, Deque<Batch> inFlight) throws IOException {
+        String reply = server.readReply();
+        Batch batch = inFlight.remove();
+        if (reply == null) {
+            throw new IOException("server closed the connection during the import");
+        }
+        if (!reply.startsWith("BATCH")) {
+            long wait = ServerConnection.retryAfterMillis(reply);
+            if (wait >= 0 && batch.attempts < MAX_ATTEMPTS) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting to resend a batch");
+                }
+                send(batch, server, inFlight);
+                return 0;
+            }
+            System.out.println("SERVER> " + reply);
+            return batch.commands.size();
+        }
+        Matcher m = FAILED_COUNT.matcher(reply);
+        int failed = m.find() ? Integer.parseInt(m.group(1)) : 0;
+        if (failed > 0) {
+            System.out.println("SERVER> " + reply);
+        }
+        return failed;
+    }
+}
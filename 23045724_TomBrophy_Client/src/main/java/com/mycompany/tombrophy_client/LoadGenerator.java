@@ -0,0 +1,468 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_client;
+import com.mycompany.tombrophy_server.*;
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Load generator and soak test for the server. It opens loadgen.connections
+ * connections and sends a mix of add, remove and list commands at a fixed
+ * total rate (open loop): each command has a time it is due, it goes out then
+ * whether or not earlier replies have come back, and its latency is counted
+ * from when it was due. A slow server therefore shows up as higher latency
+ * instead of quietly lowering the rate. Commands carry "#n " sequence tags so
+ * each connection can have many in flight.
+ *
+ * Settings are system properties, e.g.
+ *   java -Dloadgen.inProcess=true -Dloadgen.rate=5000 -Dloadgen.seconds=600 ... LoadGenerator
+ * With loadgen.inProcess the server runs in this JVM on a free port with its
+ * files in a new temporary directory, so every run starts from the same
+ * state. Any -Deventboard.* setting still applies to that server.
+ *
+ * @author tombr
+ */
+public class LoadGenerator {
+    private static final LocalDate FIRST_DAY = LocalDate.of(2026, 1, 1);
+    private static final DateTimeFormatter DATE_TEXT = DateTimeFormatter.ofPattern("d MMMM yyyy", Locale.ENGLISH);
+    // Lines per "batch; n" envelope while seeding
+    private static final int SEED_BATCH = 1000;
+    // Commands one connection can have in flight; the sender waits past this
+    private static final int MAX_IN_FLIGHT = 1 << 16;
+    // How long to wait for outstanding replies once sending has stopped
+    private static final long DRAIN_MILLIS = 10_000;
+
+    enum Op {
+        ADD, REMOVE, LIST
+    }
+
+    static final class Settings {
+        String host = "localhost";
+        int port = 1012;
+        boolean inProcess;
+        int connections = 8;
+        // Commands a second across all connections
+        int rate = 1000;
+        int seconds = 30;
+        // Replies due in the first warmupSeconds aren't counted
+        int warmupSeconds = 5;
+        int reportSeconds = 5;
+        // list gets whatever add and remove leave
+        int addPercent = 10;
+        int removePercent = 10;
+        // Dates are picked from this many days from FIRST_DAY
+        int days = 365;
+        // Events added before the run starts
+        int seedEvents = 10_000;
+        long seed = 42;
+
+        static Settings fromSystemProperties() {
+            Settings s = new Settings();
+            s.host = System.getProperty("loadgen.host", s.host);
+            s.port = Integer.getInteger("loadgen.port", s.port);
+            s.inProcess = Boolean.getBoolean("loadgen.inProcess");
+            s.connections = Integer.getInteger("loadgen.connections", s.connections);
+            s.rate = Integer.getInteger("loadgen.rate", s.rate);
+            s.seconds = Integer.getInteger("loadgen.seconds", s.seconds);
+            s.warmupSeconds = Integer.getInteger("loadgen.warmupSeconds", s.warmupSeconds);
+            s.reportSeconds = Integer.getInteger("loadgen.reportSeconds", s.reportSeconds);
+            s.addPercent = Integer.getInteger("loadgen.addPercent", s.addPercent);
+            s.removePercent = Integer.getInteger("loadgen.removePercent", s.removePercent);
+            s.days = Integer.getInteger("loadgen.days", s.days);
+            s.seedEvents = Integer.getInteger("loadgen.seedEvents", s.seedEvents);
+            s.seed = Long.getLong("loadgen.seed", s.seed);
+
+            if (s.connections < 1) {
+                throw new IllegalArgumentException("loadgen.connections must be at least 1");
+            }
+            if (s.rate < 1) {
+                throw new IllegalArgumentException("loadgen.rate must be at least 1");
+            }
+            if (s.seconds < 1 || s.warmupSeconds < 0 || s.warmupSeconds >= s.seconds) {
+                throw new IllegalArgumentException("loadgen.seconds must be at least 1 and more than loadgen.warmupSeconds");
+            }
+            if (s.addPercent < 0 || s.removePercent < 0 || s.addPercent + s.removePercent > 100) {
+                throw new IllegalArgumentException("loadgen.addPercent and loadgen.removePercent must add up to 100 or less");
+            }
+            if (s.days < 1) {
+                throw new IllegalArgumentException("loadgen.days must be at least 1");
+            }
+            return s;
+        }
+
+        @Override
+        public String toString() {
+            return connections + " connections, " + rate + "/s for " + seconds + "s (" + warmupSeconds
+                    + "s warmup), add " + addPercent + "% remove " + removePercent + "% list "
+                    + (100 - addPercent - removePercent) + "%, " + seedEvents + " seeded events over " + days + " days";
+        }
+    }
+
+    private final Settings settings;
+    private final LatencyHistogram[] latency = new LatencyHistogram[Op.values().length];
+    private final LatencyHistogram all = new LatencyHistogram();
+    // Swapped out by every interval report
+    private final AtomicReference<LatencyHistogram> interval = new AtomicReference<>(new LatencyHistogram());
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder answered = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder unanswered = new LongAdder();
+
+    private long startNanos;
+    private long measureFromNanos;
+    private long endNanos;
+
+    public LoadGenerator(Settings settings) {
+        this.settings = settings;
+        for (int i = 0; i < latency.length; i++) {
+            latency[i] = new LatencyHistogram();
+        }
+    }
+
+    public static void main(String[] args) {
+        Settings settings;
+        try {
+            settings = Settings.fromSystemProperties();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        try {
+            if (settings.inProcess) {
+                settings.port = startInProcessServer();
+                settings.host = "localhost";
+            }
+            new LoadGenerator(settings).run();
+        } catch (IOException e) {
+            System.err.println("Load test failed: " + e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Starts a server in this JVM on a free port and returns the port once it is accepting.
+    // Its files go to a fresh temporary directory unless eventboard.* says otherwise.
+    static int startInProcessServer() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("eventboard-load");
+        setIfAbsent("eventboard.eventsFile", dir.resolve("events.txt").toString());
+        setIfAbsent("eventboard.journalFile", dir.resolve("events.journal").toString());
+        setIfAbsent("eventboard.snapshotFile", dir.resolve("events.snap").toString());
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        System.setProperty("eventboard.port", Integer.toString(port));
+
+        TomBrophy_Server server = new TomBrophy_Server(ServerConfig.fromSystemProperties());
+        Thread thread = new Thread(server::start, "in-process-server");
+        thread.setDaemon(true);
+        thread.start();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (true) {
+            try {
+                new Socket("localhost", port).close();
+                System.out.println("In-process server on port " + port + ", files in " + dir);
+                return port;
+            } catch (ConnectException e) {
+                if (System.nanoTime() > deadline) {
+                    throw new IOException("In-process server did not start on port " + port);
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static void setIfAbsent(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+    public void run() throws IOException, InterruptedException {
+        System.out.println("Load: " + settings);
+        seed();
+
+        List<Connection> connections = new ArrayList<>();
+        for (int i = 0; i < settings.connections; i++) {
+            connections.add(new Connection(i));
+        }
+        startNanos = System.nanoTime();
+        measureFromNanos = startNanos + TimeUnit.SECONDS.toNanos(settings.warmupSeconds);
+        endNanos = startNanos + TimeUnit.SECONDS.toNanos(settings.seconds);
+        for (Connection c : connections) {
+            c.start();
+        }
+
+        long reportNanos = TimeUnit.SECONDS.toNanos(Math.max(1, settings.reportSeconds));
+        long nextReport = startNanos + reportNanos;
+        long lastAnswered = 0;
+        while (System.nanoTime() < endNanos) {
+            long wait = Math.min(nextReport, endNanos) - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            if (settings.reportSeconds > 0 && System.nanoTime() >= nextReport) {
+                LatencyHistogram h = interval.getAndSet(new LatencyHistogram());
+                long total = answered.sum();
+                System.out.printf("[%4ds] %8.1f replies/s, latency us %s, errors=%d%n",
+                        (System.nanoTime() - startNanos) / 1_000_000_000L,
+                        (total - lastAnswered) * 1e9 / reportNanos, h.summaryMicros(), errors.sum());
+                lastAnswered = total;
+                nextReport += reportNanos;
+            }
+        }
+        for (Connection c : connections) {
+            c.finish();
+        }
+        printSummary();
+        printServerStats();
+    }
+
+    // Adds seedEvents events over the days, in "batch; n" envelopes on one connection
+    private void seed() throws IOException {
+        if (settings.seedEvents <= 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        Random random = new Random(settings.seed);
+        int failed = 0;
+        try (Socket socket = new Socket(settings.host, settings.port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+             PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), false)) {
+            in.readLine();
+            List<String> batch = new ArrayList<>(SEED_BATCH);
+            for (int done = 0; done < settings.seedEvents; done += SEED_BATCH) {
+                int n = Math.min(SEED_BATCH, settings.seedEvents - done);
+                batch.clear();
+                for (int i = 0; i < n; i++) {
+                    batch.add("add; " + randomDate(random) + "; " + randomTime(random) + "; Seeded event " + (done + i));
+                }
+                failed += seedBatch(batch, in, out);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Seeding interrupted");
+        }
+        System.out.printf("Seeded %d events in %d ms%s%n", settings.seedEvents - failed, (System.nanoTime() - start) / 1_000_000,
+                failed > 0 ? " (" + failed + " turned down by the server)" : "");
+    }
+
+    // Sends one seeding batch and returns how many of its lines failed. A THROTTLED reply
+    // applied nothing, so the batch is sent again once the server says it may be.
+    private static int seedBatch(List<String> batch, BufferedReader in, PrintWriter out) throws IOException, InterruptedException {
+        while (true) {
+            out.println("batch; " + batch.size());
+            for (String line : batch) {
+                out.println(line);
+            }
+            out.flush();
+            String reply = in.readLine();
+            if (reply == null) {
+                throw new IOException("Seeding failed: the server closed the connection");
+            }
+            if (reply.startsWith("BATCH")) {
+                int failed = reply.indexOf(" failed");
+                return Integer.parseInt(reply.substring(reply.lastIndexOf(' ', failed - 1) + 1, failed));
+            }
+            long wait = ServerConnection.retryAfterMillis(reply);
+            if (wait < 0) {
+                throw new IOException("Seeding failed: " + reply);
+            }
+            Thread.sleep(wait);
+        }
+    }
+
+    private String randomDate(Random random) {
+        return FIRST_DAY.plusDays(random.nextInt(settings.days)).format(DATE_TEXT);
+    }
+
+    private static String randomTime(Random random) {
+        int hour = random.nextInt(24);
+        int minute = random.nextInt(60);
+        int hour12 = hour % 12 == 0 ? 12 : hour % 12;
+        return String.format("%d:%02d %s", hour12, minute, hour < 12 ? "am" : "pm");
+    }
+
+    // Recorded by the receivers for replies that were due after the warmup
+    private void recorded(Op op, long dueNanos, long nanos, boolean error) {
+        answered.increment();
+        if (error) {
+            errors.increment();
+        }
+        interval.get().record(nanos);
+        if (dueNanos >= measureFromNanos) {
+            latency[op.ordinal()].record(nanos);
+            all.record(nanos);
+        }
+    }
+
+    private void printSummary() {
+        double measuredSeconds = (endNanos - measureFromNanos) / 1e9;
+        System.out.println();
+        System.out.printf("Sent %d, answered %d, errors %d, unanswered %d%n",
+                sent.sum(), answered.sum(), errors.sum(), unanswered.sum());
+        System.out.printf("Offered %d/s, measured %.1f replies/s over %.0fs%n",
+                settings.rate, all.count() / measuredSeconds, measuredSeconds);
+        for (Op op : Op.values()) {
+            LatencyHistogram h = latency[op.ordinal()];
+            if (h.count() > 0) {
+                System.out.printf("%-7s n=%-9d latency us %s%n", op.name().toLowerCase(Locale.ROOT), h.count(), h.summaryMicros());
+            }
+        }
+        System.out.printf("%-7s n=%-9d latency us %s%n", "all", all.count(), all.summaryMicros());
+    }
+
+    private void printServerStats() {
+        try (Socket socket = new Socket(settings.host, settings.port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+            in.readLine();
+            out.println("stats");
+            System.out.println(in.readLine());
+        } catch (IOException e) {
+            System.out.println("Could not read server stats: " + e.getMessage());
+        }
+    }
+
+    // One connection: a sender that writes each command when it is due and a receiver
+    // that matches tagged replies back to their command. Both are virtual threads.
+    private final class Connection {
+        private final int id;
+        private final Random random;
+        private final Socket socket;
+        private final BufferedReader in;
+        private final Writer out;
+        // Due time and op of every command in flight, by sequence number modulo MAX_IN_FLIGHT
+        private final long[] due = new long[MAX_IN_FLIGHT];
+        private final Op[] ops = new Op[MAX_IN_FLIGHT];
+        // Events this connection added and hasn't removed yet, removes take the oldest
+        private final ArrayDeque<String> added = new ArrayDeque<>();
+        private final Semaphore window = new Semaphore(MAX_IN_FLIGHT);
+        private final AtomicLong inFlight = new AtomicLong();
+        private Thread sender;
+        private Thread receiver;
+
+        Connection(int id) throws IOException {
+            this.id = id;
+            this.random = new Random(settings.seed + 1 + id);
+            this.socket = new Socket(settings.host, settings.port);
+            socket.setTcpNoDelay(true);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+            in.readLine();
+        }
+
+        void start() {
+            sender = Thread.ofVirtual().name("load-send-" + id).start(this::send);
+            receiver = Thread.ofVirtual().name("load-receive-" + id).start(this::receive);
+        }
+
+        // Commands on this connection are evenly spaced, and the connections are staggered
+        // so together they arrive at the total rate
+        private void send() {
+            double gap = 1e9 * settings.connections / settings.rate;
+            long offset = (long) (gap * id / settings.connections);
+            try {
+                for (long seq = 0; ; seq++) {
+                    long dueAt = startNanos + offset + (long) (seq * gap);
+                    if (dueAt >= endNanos) {
+                        break;
+                    }
+                    long wait = dueAt - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    window.acquire();
+                    int slot = (int) (seq % MAX_IN_FLIGHT);
+                    Op op = nextOp();
+                    due[slot] = dueAt;
+                    ops[slot] = op;
+                    inFlight.incrementAndGet();
+                    out.write("#" + seq + " " + command(op) + "\n");
+                    out.flush();
+                    sent.increment();
+                }
+            } catch (IOException e) {
+                System.err.println("Connection " + id + " send failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private Op nextOp() {
+            int roll = random.nextInt(100);
+            if (roll < settings.addPercent) {
+                return Op.ADD;
+            }
+            if (roll < settings.addPercent + settings.removePercent) {
+                return Op.REMOVE;
+            }
+            return Op.LIST;
+        }
+
+        private String command(Op op) {
+            switch (op) {
+                case ADD:
+                    String event = randomDate(random) + "; " + randomTime(random) + "; Load event " + id + "-" + random.nextInt(1_000_000);
+                    added.addLast(event);
+                    return "add; " + event;
+                case REMOVE:
+                    // Nothing of ours to remove yet, so this one is a miss
+                    String victim = added.isEmpty() ? randomDate(random) + "; " + randomTime(random) + "; Load event none" : added.pollFirst();
+                    return "remove; " + victim;
+                case LIST:
+                default:
+                    return "list; " + randomDate(random);
+            }
+        }
+
+        private void receive() {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    long now = System.nanoTime();
+                    int space = line.indexOf(' ');
+                    if (!line.startsWith("#") || space < 2) {
+                        continue;
+                    }
+                    long seq = Long.parseLong(line.substring(1, space));
+                    // Decrement first: it pairs with the sender's increment, so the slot is visible here
+                    inFlight.decrementAndGet();
+                    int slot = (int) (seq % MAX_IN_FLIGHT);
+                    recorded(ops[slot], due[slot], now - due[slot], line.startsWith("ERROR", space + 1));
+                    window.release();
+                }
+            } catch (IOException | NumberFormatException e) {
+                // The socket was closed by finish(), or the server went away
+            }
+        }
+
+        // Waits for the last command to go and for its replies, then closes the connection
+        void finish() throws InterruptedException {
+            sender.join();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_MILLIS);
+            while (inFlight.get() > 0 && receiver.isAlive() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            unanswered.add(inFlight.get());
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            receiver.join();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_client;
+import com.mycompany.tombrophy_server.WireProtocol;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.regex.*;
+
+/**
+ * The client's end of a connection to the server, in text lines or, after
+ * upgrade(), in the server's binary frames (see WireProtocol). Replies come
+ * back as the text the text protocol would have sent either way, so the rest
+ * of the client doesn't care which one is in use. PUSH lines for subscribed
+ * days can come in ahead of any reply; they are printed as they are read.
+ *
+ * @author tombr
+ */
+public class ServerConnection implements Closeable {
+    // The end of the server's THROTTLED error, e.g. "...the limit is 200 a second. Try again in 40 ms"
+    private static final Pattern RETRY_AFTER = Pattern.compile("^ERROR: Too many .* Try again in (\\d+) ms$");
+
+    private final Socket socket;
+    // Text lines are read byte by byte from the same buffer frames are, so nothing
+    // read ahead as text is lost when the connection switches
+    private final InputStream in;
+    private final OutputStream out;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+    private boolean binary;
+
+    public ServerConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    // How long the server asked us to wait if the reply is a THROTTLED error, otherwise -1
+    public static long retryAfterMillis(String reply) {
+        Matcher m = RETRY_AFTER.matcher(reply);
+        return m.matches() ? Long.parseLong(m.group(1)) : -1;
+    }
+
+    // Asks the server for binary frames. False, and still text, if it turns them down.
+    public boolean upgrade() throws IOException {
+        if (!binary) {
+            send(WireProtocol.UPGRADE);
+            flush();
+            String reply = readReply();
+            if (!binary && reply != null) {
+                System.out.println("SERVER> " + reply);
+            }
+        }
+        return binary;
+    }
+
+    // Queues one command; flush() sends everything queued
+    public void send(String command) throws IOException {
+        if (binary) {
+            WireProtocol.writeRequest(out, command);
+        } else {
+            out.write((command + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    // The next reply as text, or null once the server has closed the connection.
+    // The PROTOCOL reply to protocol; binary switches this end over too.
+    public String readReply() throws IOException {
+        while (true) {
+            String reply;
+            if (binary) {
+                byte[] frame = WireProtocol.readFrame(in);
+                if (frame == null) {
+                    return null;
+                }
+                reply = WireProtocol.toText(frame);
+            } else {
+                reply = readLine();
+                if (reply == null) {
+                    return null;
+                }
+                if (reply.equals(WireProtocol.UPGRADED)) {
+                    binary = true;
+                }
+            }
+            if (!reply.startsWith("PUSH ")) {
+                return reply;
+            }
+            System.out.println("\nSERVER PUSH> " + reply.substring(5));
+        }
+    }
+
+    // One text line, for the banner and the text protocol
+    public String readLine() throws IOException {
+        line.reset();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            line.write(b);
+        }
+        if (b < 0 && line.size() == 0) {
+            return null;
+        }
+        String text = line.toString(StandardCharsets.UTF_8);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -5,6 +5,7 @@
 package com.mycompany.tombrophy_client;
 import java.io.*;
 import java.net.*;
+import java.util.*;
 
 /**
  *
@@ -28,23 +29,33 @@ public class TomBrophy_Client {
     //This is will run the client and tell the user if the server is running or not.
     private static void run() {
         try (
-            Socket link = new Socket(host, PORT);
-            BufferedReader in = new BufferedReader(new InputStreamReader(link.getInputStream()));
-            PrintWriter out = new PrintWriter(link.getOutputStream(),true);
+            ServerConnection server = new ServerConnection(new Socket(host, PORT));
             BufferedReader userEntry = new BufferedReader(new InputStreamReader(System.in))) {
             
             //This reads the banner.
-            String banner = in.readLine();
+            String banner = server.readLine();
             if (banner != null) {
                 System.out.println("SERVER> " + banner);
+
+                // -Deventboard.protocol=binary asks for the compact binary protocol straight away
+                if ("binary".equalsIgnoreCase(System.getProperty("eventboard.protocol")) && server.upgrade()) {
+                    System.out.println("Using the binary protocol");
+                }
                 
                 //This is the url that the project is importing to.
                 String defaultUrl = "https://raw.githubusercontent.com/TomBrophy101/23405724_TomBrophy/master/23045724_TomBrophy_Server/events.txt";
                 System.out.println("Importing intials events from: " + defaultUrl);
-                HTTPImporter.importEventsFromHttp(defaultUrl, out, in);
+                HTTPImporter.importEventsFromHttp(defaultUrl, server);
                 
                 //The commands that have to be entered are add, remove or list and it includes the action, date, time and the Description.
                 System.out.println("\nType a specific command to the server: add, remove, or list, make sure it also includes a date, time and description and Type STOP to quit");
+                System.out.println("You can also ask for a range of dates with range; from; to or the next few events with upcoming; n");
+                System.out.println("To import more events type import; url (add more URLs separated by ';' to import them together)");
+                System.out.println("To have the server load a big file itself type bulkload; file (from the server's bulkload directory) or url (if the server allows it)");
+                System.out.println("To find events by the words in their description type search; words (e.g. search; fire dublin)");
+                System.out.println("Type stats to see how the server is doing");
+                System.out.println("To watch a day type subscribe; date (and unsubscribe; date to stop), changes show up as PUSH lines");
+                System.out.println("Type protocol; binary to switch to the compact binary protocol");
                 while (true) {
                     String message =  userEntry.readLine();
                     if (message == null) {
@@ -56,11 +67,17 @@ public class TomBrophy_Client {
                     }
                 
                     if (message.toLowerCase().startsWith("import")) {
-                        String[] parts = message.split(";", 2);
-                        if (parts.length == 2) {
-                            String urlString = parts[1].trim();
-                            System.out.println("Attempting to import events from " + urlString);
-                            HTTPImporter.importEventsFromHttp(urlString, out, in);
+                        //Several URLs can be given, separated by ';', and they are downloaded at the same time.
+                        String[] parts = message.split(";");
+                        List<String> urls = new ArrayList<>();
+                        for (int i = 1; i < parts.length; i++) {
+                            if (!parts[i].isBlank()) {
+                                urls.add(parts[i].trim());
+                            }
+                        }
+                        if (!urls.isEmpty()) {
+                            System.out.println("Attempting to import events from " + String.join(", ", urls));
+                            HTTPImporter.importEventsFromHttp(urls, server);
                             continue;
                         } else {
                             System.out.println("The import is invalid");
@@ -68,9 +85,10 @@ public class TomBrophy_Client {
                         }
                     }
                     
-                    out.println(message); 
+                    server.send(message);
+                    server.flush();
                 
-                    String response = in.readLine();
+                    String response = server.readReply();
                     if (response == null) {
                         System.out.println("The SERVER is closed");
                         break;
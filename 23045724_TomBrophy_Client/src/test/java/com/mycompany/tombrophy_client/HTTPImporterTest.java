@@ -0,0 +1,173 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_client;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * HTTPImporter against a local HttpServer standing in for the file host and a
+ * socket standing in for the EventBoard server, which records every batch it
+ * is sent and answers the way the real one does.
+ *
+ * @author tombr
+ */
+class HTTPImporterTest {
+    private HttpServer http;
+    private ServerSocket board;
+    private Thread boardThread;
+    // Lines of each batch the stand-in board received
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+    // Batch replies to give before answering normally, e.g. a THROTTLED error
+    private final Queue<String> scriptedReplies = new ConcurrentLinkedQueue<>();
+
+    @BeforeEach
+    void start() throws IOException {
+        http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        http.start();
+        board = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        boardThread = Thread.ofVirtual().start(this::serveBoard);
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        http.stop(0);
+        board.close();
+        boardThread.join(5000);
+    }
+
+    @Test
+    void importsGoodLinesInBatchesAndSkipsBadOnes() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 1203; i++) {
+            body.append(1 + i % 28).append(" February 2031; ").append(1 + i % 12).append(" pm; Event ").append(i).append('\n');
+        }
+        body.append("not a line\n");
+        body.append("31 February 2031; 6 pm; No such day\n");
+        body.append("1 March 2031; 25:00; No such time\n");
+        body.append("1 March 2031; 6 pm;\n");
+        body.append('\n');
+        serve("/events.txt", body.toString());
+
+        String out = runImport(url("/events.txt"));
+
+        assertTrue(out.contains("Imported: 1203; Skipped: 4"), out);
+        assertEquals(List.of(500, 500, 203), batches.stream().map(List::size).toList());
+        assertEquals("add; 1 February 2031; 1 pm; Event 0", batches.get(0).get(0));
+        assertTrue(out.contains("Skipped line 1204: needs exactly 3 fields"), out);
+        assertTrue(out.contains("Skipped line 1205: bad date"), out);
+        assertTrue(out.contains("Skipped line 1206: bad time"), out);
+        assertTrue(out.contains("Skipped line 1207: description is empty"), out);
+    }
+
+    @Test
+    void linesTheServerTurnsDownCountAsSkipped() throws Exception {
+        serve("/events.txt", "2 February 2031; 6 pm; One\n2 February 2031; 7 pm; Two\n");
+        scriptedReplies.add("BATCH 2: 1 applied, 0 unchanged, 1 failed (line 2: Events before 1 March 2031 are archived and can't be changed)");
+
+        String out = runImport(url("/events.txt"));
+
+        assertTrue(out.contains("Imported: 1; Skipped: 1"), out);
+    }
+
+    @Test
+    void throttledBatchIsSentAgainAfterTheWait() throws Exception {
+        serve("/events.txt", "2 February 2031; 6 pm; One\n2 February 2031; 7 pm; Two\n");
+        scriptedReplies.add("ERROR: Too many writes from 127.0.0.1, the limit is 1 a second. Try again in 5 ms");
+        scriptedReplies.add("ERROR: Too many writes from 127.0.0.1, the limit is 1 a second. Try again in 5 ms");
+
+        String out = runImport(url("/events.txt"));
+
+        assertTrue(out.contains("Imported: 2; Skipped: 0"), out);
+        assertEquals(3, batches.size());
+        assertEquals(batches.get(0), batches.get(2));
+    }
+
+    @Test
+    void batchTheServerCouldNotSaveCountsAsSkipped() throws Exception {
+        serve("/events.txt", "2 February 2031; 6 pm; One\n2 February 2031; 7 pm; Two\n");
+        scriptedReplies.add("ERROR: The journal could not be written: No space left on device");
+
+        String out = runImport(url("/events.txt"));
+
+        assertTrue(out.contains("SERVER> ERROR: The journal could not be written"), out);
+        assertTrue(out.contains("Imported: 0; Skipped: 2"), out);
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    void missingFileIsReported() throws Exception {
+        String out = runImport(url("/nothing-here.txt"));
+
+        assertTrue(out.contains("Import failed: 404 Not Found"), out);
+        assertTrue(out.contains("Imported: 0; Skipped: 0"), out);
+        assertTrue(batches.isEmpty());
+    }
+
+    private void serve(String path, String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        http.createContext(path, exchange -> {
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        });
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + http.getAddress().getPort() + path;
+    }
+
+    // Runs the import over a connection to the stand-in board and returns what it printed
+    private String runImport(String url) throws IOException {
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        PrintStream original = System.out;
+        try (ServerConnection server = new ServerConnection(new Socket(InetAddress.getLoopbackAddress(), board.getLocalPort()))) {
+            server.readLine();
+            System.setOut(new PrintStream(printed, true, StandardCharsets.UTF_8));
+            HTTPImporter.importEventsFromHttp(url, server);
+        } finally {
+            System.setOut(original);
+        }
+        return printed.toString(StandardCharsets.UTF_8);
+    }
+
+    // One connection at a time: batches get a BATCH summary, tagged lists get "no events"
+    private void serveBoard() {
+        while (!board.isClosed()) {
+            try (Socket s = board.accept();
+                 BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                 PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), true)) {
+                out.println("WELCOME To EventBoard.");
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("batch; ")) {
+                        int n = Integer.parseInt(line.substring(7).trim());
+                        List<String> batch = new ArrayList<>(n);
+                        while (batch.size() < n) {
+                            batch.add(in.readLine());
+                        }
+                        batches.add(batch);
+                        String scripted = scriptedReplies.poll();
+                        out.println(scripted != null ? scripted : "BATCH " + n + ": " + n + " applied, 0 unchanged, 0 failed");
+                    } else if (line.startsWith("#")) {
+                        out.println(line.substring(0, line.indexOf(' ') + 1) + "no events");
+                    } else {
+                        out.println("ERROR: Unknown command");
+                    }
+                }
+            } catch (IOException e) {
+                // The board was closed, or the importer hung up
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.*;
+import java.util.*;
+
+/**
+ * Builds servers for the benchmarks. The benchmarks live in the server's
+ * package so they can call processMessage and friends directly, without a
+ * socket in the way.
+ *
+ * @author tombr
+ */
+final class BenchmarkStores {
+    static final LocalDate FIRST_DAY = LocalDate.of(2025, 1, 1);
+    private static final DateTimeFormatter DATE_TEXT = DateTimeFormatter.ofPattern("d MMMM yyyy", Locale.ENGLISH);
+
+    private BenchmarkStores() {
+    }
+
+    // A server whose files live in dir. No fsync and no background compaction,
+    // so the numbers are about our code and not the disk.
+    static ServerConfig config(Path dir) {
+        ServerConfig config = new ServerConfig();
+        config.eventsFile = dir.resolve("events.txt").toString();
+        config.journalFile = dir.resolve("events.journal").toString();
+        config.snapshotFile = dir.resolve("events.snap").toString();
+        config.fsync = EventJournal.FsyncPolicy.NEVER;
+        config.compactSeconds = 0;
+        config.compactRecords = Integer.MAX_VALUE;
+        return config;
+    }
+
+    static TomBrophy_Server openServer(ServerConfig config) throws IOException {
+        TomBrophy_Server server = new TomBrophy_Server(config);
+        server.openStore();
+        return server;
+    }
+
+    // Fills the store with total events, eventsPerDay on each day from FIRST_DAY on
+    static void seed(TomBrophy_Server server, int total, int eventsPerDay) {
+        for (int i = 0; i < total; i++) {
+            server.addEvent(new Event(dateText(i / eventsPerDay), timeText(i), "Seeded event " + i));
+        }
+    }
+
+    static String dateText(int dayOffset) {
+        return FIRST_DAY.plusDays(dayOffset).format(DATE_TEXT);
+    }
+
+    // Spreads events over the day so they don't all share a minute
+    static String timeText(int i) {
+        int minuteOfDay = (i * 7) % (24 * 60);
+        int hour = minuteOfDay / 60;
+        int minute = minuteOfDay % 60;
+        int hour12 = hour % 12 == 0 ? 12 : hour % 12;
+        String half = hour < 12 ? "am" : "pm";
+        return minute == 0 ? hour12 + " " + half : String.format("%d:%02d %s", hour12, minute, half);
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        try (var paths = Files.walk(dir)) {
+            for (Path p : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
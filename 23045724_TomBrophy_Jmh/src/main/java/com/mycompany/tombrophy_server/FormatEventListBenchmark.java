@@ -0,0 +1,44 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * formatEventList for one day holding more and more events.
+ *
+ * @author tombr
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatEventListBenchmark {
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int eventsOnDay;
+
+    private TomBrophy_Server server;
+    private NavigableSet<Event> day;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        server = new TomBrophy_Server(new ServerConfig());
+        EventStore store = new EventStore();
+        String date = BenchmarkStores.dateText(0);
+        for (int i = 0; i < eventsOnDay; i++) {
+            store.add(new Event(date, BenchmarkStores.timeText(i), "Seeded event " + i));
+        }
+        day = store.eventsOn(date);
+    }
+
+    @Benchmark
+    public String format() {
+        return server.formatEventList(day);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.nio.file.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Writing a full snapshot and loading it back at startup, from 10k to 10M
+ * events, as events.txt and as the binary format. Each call is one cold pass
+ * over the whole file, so this runs as single shots. The 10M case needs a big
+ * heap: two copies of the board are alive while load runs.
+ *
+ * @author tombr
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx12g"})
+public class PersistenceBenchmark {
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int events;
+
+    @Param({"100"})
+    public int eventsPerDay;
+
+    @Param({"TEXT", "BINARY"})
+    public EventSnapshot.Format format;
+
+    private Path dir;
+    private TomBrophy_Server server;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("eventboard-jmh");
+        server = new TomBrophy_Server(config());
+        BenchmarkStores.seed(server, events, eventsPerDay);
+        server.saveEventsToFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server = null;
+        BenchmarkStores.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void save() throws Exception {
+        server.saveEventsToFile();
+    }
+
+    @Benchmark
+    public TomBrophy_Server load() {
+        TomBrophy_Server fresh = new TomBrophy_Server(config());
+        fresh.loadEventsFromFile();
+        return fresh;
+    }
+
+    private ServerConfig config() {
+        ServerConfig config = BenchmarkStores.config(dir);
+        config.snapshotFormat = format;
+        return config;
+    }
+}
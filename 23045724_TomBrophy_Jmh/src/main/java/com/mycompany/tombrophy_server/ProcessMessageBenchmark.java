@@ -0,0 +1,112 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * processMessage with list-only, add/remove-only and mixed traffic over a
+ * year of seeded events, with and without the list reply cache. Writes come in add/remove pairs so the store stays
+ * the same size for the whole run. Use -t to run it from several threads.
+ *
+ * @author tombr
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessMessageBenchmark {
+    private static final int COMMANDS = 4096;
+
+    @Param({"365"})
+    public int days;
+
+    @Param({"10", "100"})
+    public int eventsPerDay;
+
+    // Share of list commands in mixed()
+    @Param({"90", "50", "10"})
+    public int readPercent;
+
+    // Size of the list reply cache, 0 runs without it
+    @Param({"0", "4000000"})
+    public long cacheChars;
+
+    private Path dir;
+    private TomBrophy_Server server;
+    private String[] lists;
+    private String[] adds;
+    private String[] removes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("eventboard-jmh");
+        ServerConfig config = BenchmarkStores.config(dir);
+        config.cacheChars = cacheChars;
+        server = BenchmarkStores.openServer(config);
+        BenchmarkStores.seed(server, days * eventsPerDay, eventsPerDay);
+
+        lists = new String[COMMANDS];
+        adds = new String[COMMANDS];
+        removes = new String[COMMANDS];
+        Random random = new Random(42);
+        for (int i = 0; i < COMMANDS; i++) {
+            String date = BenchmarkStores.dateText(random.nextInt(days));
+            String time = BenchmarkStores.timeText(random.nextInt(24 * 60));
+            lists[i] = "list; " + date;
+            adds[i] = "add; " + date + "; " + time + "; Benchmark event " + i;
+            removes[i] = "remove; " + date + "; " + time + "; Benchmark event " + i;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.closeStore();
+        BenchmarkStores.deleteRecursively(dir);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+        SplittableRandom random = new SplittableRandom();
+
+        // Each thread walks its own stretch of the command table so threads don't
+        // add and remove each other's events
+        @Setup(Level.Trial)
+        public void setUp() {
+            next = (int) (Thread.currentThread().threadId() * 613) & (COMMANDS - 1);
+        }
+    }
+
+    @Benchmark
+    public String list(Cursor c) throws Exception {
+        return server.processMessage(lists[c.next++ & (COMMANDS - 1)]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public String addThenRemove(Cursor c) throws Exception {
+        int i = c.next++ & (COMMANDS - 1);
+        server.processMessage(adds[i]);
+        return server.processMessage(removes[i]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public String mixed(Cursor c) throws Exception {
+        int i = c.next++ & (COMMANDS - 1);
+        if (c.random.nextInt(100) < readPercent) {
+            server.processMessage(lists[i]);
+            return server.processMessage(lists[(i + 1) & (COMMANDS - 1)]);
+        }
+        server.processMessage(adds[i]);
+        return server.processMessage(removes[i]);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * SearchIndex.search over a board of seeded events whose descriptions mix a
+ * few common words, a rarer word and a number unique to the event.
+ *
+ * @author tombr
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+    private static final String[] COMMON = {"concert", "market", "festival", "theatre", "night", "family"};
+    private static final String[] PLACES = {"Dublin", "Cork", "Galway", "Limerick", "Waterford", "Kilkenny",
+        "Sligo", "Athlone", "Wexford", "Tralee", "Ennis", "Drogheda"};
+
+    @Param({"100000", "1000000"})
+    public int events;
+
+    @Param({"100"})
+    public int eventsPerDay;
+
+    @Param({"event 123456", "kilk", "concert sligo", "zzz"})
+    public String terms;
+
+    private SearchIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        index = new SearchIndex();
+        EventStore store = new EventStore(index);
+        for (int i = 0; i < events; i++) {
+            String description = COMMON[i % COMMON.length] + " in " + PLACES[(i / 7) % PLACES.length] + " event " + i;
+            store.add(new Event(BenchmarkStores.dateText(i / eventsPerDay), BenchmarkStores.timeText(i), description));
+        }
+    }
+
+    @Benchmark
+    public List<Event> search() {
+        return index.search(terms, TomBrophy_Server.DEFAULT_SEARCH_RESULTS);
+    }
+}
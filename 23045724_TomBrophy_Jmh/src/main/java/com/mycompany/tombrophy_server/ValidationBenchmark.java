@@ -0,0 +1,78 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/**
+ * validateDate and validateTime on good input and on the bad input clients
+ * really send, where the cost of building the exception shows up, plus the
+ * command parser on a whole add line.
+ *
+ * @author tombr
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+    private final TomBrophy_Server server = new TomBrophy_Server(new ServerConfig());
+    private final Command command = new Command();
+
+    @Param({"add; 2 November 2025; 7:30 pm; Jersey Boys Bord Gais Energy Theatre"})
+    public String addLine;
+
+    @Param({"2 November 2025"})
+    public String goodDate;
+
+    @Param({"2 Nov 2025"})
+    public String badDate;
+
+    @Param({"7:30 pm"})
+    public String goodTime;
+
+    @Param({"half seven"})
+    public String badTime;
+
+    @Benchmark
+    public Command parseAndValidate() throws InvalidCommandException {
+        CommandParser.parse(addLine, command);
+        CommandParser.validateDate(command, 1);
+        CommandParser.validateTime(command, 2);
+        return command;
+    }
+
+    @Benchmark
+    public void validDate() throws InvalidCommandException {
+        server.validateDate(goodDate);
+    }
+
+    @Benchmark
+    public void invalidDate(Blackhole bh) {
+        try {
+            server.validateDate(badDate);
+        } catch (InvalidCommandException e) {
+            bh.consume(e);
+        }
+    }
+
+    @Benchmark
+    public void validTime() throws InvalidCommandException {
+        server.validateTime(goodTime);
+    }
+
+    @Benchmark
+    public void invalidTime(Blackhole bh) {
+        try {
+            server.validateTime(badTime);
+        } catch (InvalidCommandException e) {
+            bh.consume(e);
+        }
+    }
+}
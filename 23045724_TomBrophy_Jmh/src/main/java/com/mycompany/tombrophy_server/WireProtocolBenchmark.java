@@ -0,0 +1,88 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * One day's events as a text reply against a binary EVENTS frame: the cost of
+ * building each, and of a client getting the events back out of each. Setup
+ * prints how many bytes each takes on the wire.
+ *
+ * @author tombr
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireProtocolBenchmark {
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int eventsOnDay;
+
+    private TomBrophy_Server server;
+    private NavigableSet<Event> day;
+    private final WireProtocol.FrameBuilder frame = new WireProtocol.FrameBuilder();
+    private byte[] textReply;
+    private byte[] binaryReply;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        server = new TomBrophy_Server(new ServerConfig());
+        EventStore store = new EventStore();
+        String date = BenchmarkStores.dateText(0);
+        for (int i = 0; i < eventsOnDay; i++) {
+            store.add(new Event(date, BenchmarkStores.timeText(i), "Seeded event " + i));
+        }
+        day = store.eventsOn(date);
+        textReply = (server.formatEventList(day) + "\n").getBytes(StandardCharsets.UTF_8);
+        binaryReply = encodeBinary().toBytes();
+        System.out.println("\n" + eventsOnDay + " events: text " + textReply.length
+                + " bytes, binary " + binaryReply.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encodeText() {
+        return (server.formatEventList(day) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public WireProtocol.FrameBuilder encodeBinary() {
+        frame.start("");
+        for (Event e : day) {
+            frame.event(e);
+        }
+        frame.noEvents();
+        return frame;
+    }
+
+    // What a client has to do with the text: split it back into times and descriptions
+    @Benchmark
+    public void decodeText(Blackhole bh) {
+        String reply = new String(textReply, 0, textReply.length - 1, StandardCharsets.UTF_8);
+        String[] parts = reply.split("; ");
+        bh.consume(EventDates.parseDate(parts[0]));
+        for (int i = 1; i < parts.length; i++) {
+            int comma = parts[i].indexOf(", ");
+            bh.consume(EventDates.parseTime(parts[i].substring(0, comma)));
+            bh.consume(parts[i].substring(comma + 2));
+        }
+    }
+
+    @Benchmark
+    public int decodeBinary(Blackhole bh) throws IOException {
+        return WireProtocol.decodeEvents(WireProtocol.readFrame(new ByteArrayInputStream(binaryReply)),
+                (epochDay, minuteOfDay, time, description) -> {
+                    bh.consume(minuteOfDay);
+                    bh.consume(description);
+                });
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.io.*;
+import java.net.*;
+import java.net.http.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * bulkload; source - reads "date; time; description" lines (the events.txt
+ * format) from a file under eventboard.bulkloadDir or an http(s) URL under one
+ * of eventboard.bulkloadUrls straight into the board, instead of a client
+ * sending every line over the socket.
+ *
+ * The calling thread streams the source in chunks, and each chunk is parsed,
+ * validated and sorted by date on the loader's pool while the next one is read.
+ * The sorted runs are added to the store in file order, so the skip lists are
+ * filled a day at a time. The changes go through the journal like any add, so
+ * replication and subscriptions see them, but the loader waits for it only
+ * once at the end, then asks for a snapshot so the load doesn't sit in the
+ * journal.
+ *
+ * @author tombr
+ */
+final class BulkLoader {
+    private static final int CHUNK_LINES = 10_000;
+
+    // Redirects aren't followed, they could lead anywhere outside eventboard.bulkloadUrls
+    private static final HttpClient HTTP = HttpClient.newBuilder()
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .connectTimeout(Duration.ofSeconds(8))
+            .build();
+
+    // One chunk after parsing: its good events sorted by date, and what was wrong with the rest
+    private static final class Run {
+        final List<Event> events = new ArrayList<>();
+        int skipped;
+        final List<String> errors = new ArrayList<>();
+    }
+
+    private final TomBrophy_Server server;
+    private final ServerConfig config;
+    private final RateLimiter rateLimiter;
+    private final ExecutorService pool;
+
+    BulkLoader(TomBrophy_Server server, ServerConfig config, RateLimiter rateLimiter) {
+        this.server = server;
+        this.config = config;
+        this.rateLimiter = rateLimiter;
+        this.pool = Executors.newFixedThreadPool(config.bulkloadThreads, r -> {
+            Thread t = new Thread(r, "bulkload-parser");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // client pays eventboard.writesPerSecond tokens for every line, as if it had sent them
+    // in batches; see RateLimiter
+    String load(String source, InetAddress client) throws InvalidCommandException {
+        long start = System.nanoTime();
+        long added = 0;
+        long unchanged = 0;
+        long skipped = 0;
+        long lastSeq = 0;
+        // Skipped because their day is past the retention horizon
+        long archived = 0;
+        List<String> errors = new ArrayList<>();
+        Map<LocalDate, String> touched = new HashMap<>();
+
+        // Parsing runs ahead of adding by at most this many chunks
+        Deque<Future<Run>> pending = new ArrayDeque<>();
+        int maxPending = config.bulkloadThreads * 2;
+        try (BufferedReader in = open(source)) {
+            List<String> lines = new ArrayList<>(CHUNK_LINES);
+            int firstLine = 1;
+            boolean eof = false;
+            while (!eof || !pending.isEmpty()) {
+                while (!eof && pending.size() < maxPending) {
+                    String line = in.readLine();
+                    if (line != null) {
+                        lines.add(line);
+                    }
+                    if (lines.size() == CHUNK_LINES || (line == null && !lines.isEmpty())) {
+                        List<String> chunk = lines;
+                        int chunkFirstLine = firstLine;
+                        pending.add(pool.submit(() -> parse(chunk, chunkFirstLine)));
+                        firstLine += chunk.size();
+                        lines = new ArrayList<>(CHUNK_LINES);
+                    }
+                    eof = line == null;
+                }
+                if (pending.isEmpty()) {
+                    break;
+                }
+
+                Run run = pending.poll().get();
+                rateLimiter.charge(client, Command.Action.BULKLOAD, run.events.size() + run.skipped);
+                skipped += run.skipped;
+                for (String error : run.errors) {
+                    if (errors.size() < TomBrophy_Server.BATCH_ERRORS_SHOWN) {
+                        errors.add(error);
+                    }
+                }
+                for (Event e : run.events) {
+                    if (server.isArchived(e.day())) {
+                        skipped++;
+                        archived++;
+                        continue;
+                    }
+                    long seq = server.addAndJournal(e);
+                    if (seq > 0) {
+                        lastSeq = seq;
+                        added++;
+                        touched.putIfAbsent(e.day(), e.date);
+                    } else {
+                        unchanged++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new InvalidCommandException("Could not read " + source + ": " + e.getMessage());
+        } catch (ExecutionException e) {
+            throw new InvalidCommandException("Could not load " + source + ": " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InvalidCommandException("The load of " + source + " was interrupted");
+        } finally {
+            for (Future<Run> run : pending) {
+                run.cancel(true);
+            }
+            // Whatever made it onto the board is journaled and published, even if the load failed
+            if (lastSeq > 0) {
+                try {
+                    server.awaitCommitted(lastSeq);
+                } finally {
+                    touched.forEach(server::publishChange);
+                    server.requestSnapshot();
+                }
+            }
+        }
+
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        String skippedText = skipped + " skipped" + (archived > 0 ? " (" + archived + " on archived days)" : "");
+        ServerLog.info("Bulk loaded " + source + ": " + added + " added, " + unchanged + " unchanged, "
+                + skippedText + " in " + millis + " ms");
+        return "BULKLOAD " + source + ": " + added + " added, " + unchanged + " unchanged, "
+                + skippedText + " in " + millis + " ms"
+                + (errors.isEmpty() ? "" : " (" + String.join("; ", errors) + (skipped - archived > errors.size() ? "; ...)" : ")"));
+    }
+
+    // Parses and validates one chunk the way batch lines are checked, then sorts it by date
+    private static Run parse(List<String> lines, int firstLine) {
+        Run run = new Run();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                String[] parts = line.split(";", 3);
+                if (parts.length < 3 || parts[2].isBlank()) {
+                    throw new InvalidCommandException("needs date; time; description");
+                }
+                CommandParser.validateDate(parts[0], 0, parts[0].length());
+                CommandParser.validateTime(parts[1], 0, parts[1].length());
+                run.events.add(new Event(parts[0], parts[1], parts[2]));
+            } catch (InvalidCommandException e) {
+                run.skipped++;
+                if (run.errors.size() < TomBrophy_Server.BATCH_ERRORS_SHOWN) {
+                    run.errors.add("line " + (firstLine + i) + ": " + e.getMessage());
+                }
+            }
+        }
+        run.events.sort(SearchIndex.BY_DATE);
+        return run;
+    }
+
+    private BufferedReader open(String source) throws InvalidCommandException, IOException, InterruptedException {
+        if (source.isEmpty()) {
+            throw new InvalidCommandException("Usage: bulkload; file or http(s) URL");
+        }
+        String lower = source.toLowerCase(Locale.ROOT);
+        if (lower.startsWith("http://") || lower.startsWith("https://")) {
+            if (config.bulkloadUrls.isEmpty()) {
+                throw new InvalidCommandException("Loading URLs is turned off on this server (eventboard.bulkloadUrls is empty)"
+                        + (config.bulkloadDir.isEmpty() ? "" : ", use a file in its load directory"));
+            }
+            HttpRequest request;
+            try {
+                URI uri = URI.create(source);
+                if (!isAllowedUrl(uri, config.bulkloadUrls)) {
+                    throw new InvalidCommandException("URLs to load must be under " + String.join(" or ", config.bulkloadUrls));
+                }
+                request = HttpRequest.newBuilder(uri)
+                        .GET()
+                        .header("User-Agent", "EventBoardServer/1.0")
+                        .header("Accept", "text/plain")
+                        .timeout(Duration.ofSeconds(30))
+                        .build();
+            } catch (IllegalArgumentException e) {
+                throw new InvalidCommandException("That isn't a URL: " + source);
+            }
+            HttpResponse<InputStream> response = HTTP.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() >= 300) {
+                response.body().close();
+                throw new InvalidCommandException("Could not fetch " + source + ": HTTP " + response.statusCode()
+                        + (response.statusCode() < 400 ? " (redirects aren't followed)" : ""));
+            }
+            return new BufferedReader(new InputStreamReader(response.body(), StandardCharsets.UTF_8));
+        }
+
+        // Clients only get to read files the operator put in the load directory
+        if (config.bulkloadDir.isEmpty()) {
+            throw new InvalidCommandException("Loading files is turned off on this server (eventboard.bulkloadDir is empty)"
+                    + (config.bulkloadUrls.isEmpty() ? "" : ", use a URL"));
+        }
+        Path dir = Paths.get(config.bulkloadDir).toAbsolutePath().normalize();
+        Path file;
+        try {
+            file = dir.resolve(source).normalize();
+        } catch (InvalidPathException e) {
+            throw new InvalidCommandException("That isn't a file name: " + source);
+        }
+        if (!file.startsWith(dir)) {
+            throw new InvalidCommandException("Files to load must be in " + dir);
+        }
+        if (!Files.isRegularFile(file)) {
+            throw new InvalidCommandException("No such file: " + source);
+        }
+        return Files.newBufferedReader(file, StandardCharsets.UTF_8);
+    }
+
+    // Whether uri is under one of the prefixes: same scheme, host and port, and a path at or
+    // below the prefix's. Compared parsed rather than as text, so http://example.com.evil.net/
+    // doesn't pass for http://example.com, and no ".." (encoded or not) may climb back out.
+    static boolean isAllowedUrl(URI uri, List<String> prefixes) {
+        uri = uri.normalize();
+        String path = uri.getPath() == null || uri.getPath().isEmpty() ? "/" : uri.getPath();
+        if (uri.getHost() == null || uri.getRawUserInfo() != null || Arrays.asList(path.split("/")).contains("..")) {
+            return false;
+        }
+        for (String text : prefixes) {
+            URI prefix = URI.create(text).normalize();
+            String under = prefix.getPath() == null || prefix.getPath().isEmpty() ? "/" : prefix.getPath();
+            if (prefix.getScheme().equalsIgnoreCase(uri.getScheme())
+                    && prefix.getHost().equalsIgnoreCase(uri.getHost())
+                    && port(prefix) == port(uri)
+                    && (path.equals(under) || path.startsWith(under.endsWith("/") ? under : under + "/"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // For checking eventboard.bulkloadUrls at startup
+    static boolean isUrlPrefix(String text) {
+        try {
+            URI uri = new URI(text);
+            return ("http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme())) && uri.getHost() != null;
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+
+    private static int port(URI uri) {
+        return uri.getPort() >= 0 ? uri.getPort() : "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.net.*;
+
+/**
+ * One decoded protocol line. It only holds offsets into the line, so a
+ * connection can keep one and reuse it for every line it reads. Strings are
+ * cut out only when something needs to keep them (e.g. the event being added)
+ * or an error message has to quote them.
+ *
+ * @author tombr
+ */
+final class Command {
+    enum Action {
+        ADD, REMOVE, LIST, RANGE, UPCOMING, SEARCH, BATCH, BULKLOAD, SUBSCRIBE, UNSUBSCRIBE, PROTOCOL, STATS, STOP, UNKNOWN
+    }
+
+    // At most this many parts, like split(";", 4): the last one keeps any further ';'
+    static final int MAX_PARTS = 4;
+
+    CharSequence text;
+    Action action = Action.UNKNOWN;
+    // Number of ';'-separated parts, 0 for a blank line
+    int parts;
+    // Trimmed bounds of each part in text
+    final int[] start = new int[MAX_PARTS];
+    final int[] end = new int[MAX_PARTS];
+    // Where pushes for subscribe; date go, set by the connection. Null where there is no connection.
+    SubscriptionHub.Subscriber subscriber;
+    // Who eventboard.writesPerSecond and readsPerSecond are counted against, set by the
+    // connection. Null where there is no connection, and then nothing is limited.
+    InetAddress client;
+    // Set by connections that can switch to WireProtocol frames. protocol; binary sets
+    // binary, and the connection switches once the reply has gone out.
+    boolean binaryCapable;
+    boolean binary;
+
+    boolean has(int part) {
+        return part < parts;
+    }
+
+    boolean isBlank(int part) {
+        return part >= parts || start[part] == end[part];
+    }
+
+    // The trimmed text of a part, "" if the line didn't have it
+    String part(int part) {
+        return part < parts ? text.subSequence(start[part], end[part]).toString() : "";
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.time.*;
+
+/**
+ * Single-pass parser for "action; date; time; description" lines. It fills in
+ * a reusable Command with the offsets of each part and checks dates and times
+ * in place, so a good line costs no allocations (no split, no trim, no
+ * toLowerCase). Bad input gets exactly the same InvalidCommandException
+ * messages the split-based code produced.
+ *
+ * @author tombr
+ */
+final class CommandParser {
+    private static final Command.Action[] ACTIONS = Command.Action.values();
+    private static final String[] ACTION_NAMES = new String[ACTIONS.length];
+
+    static {
+        for (int i = 0; i < ACTIONS.length; i++) {
+            ACTION_NAMES[i] = ACTIONS[i].name().toLowerCase();
+        }
+    }
+
+    // Returned by parseInt when the text isn't a number Integer.parseInt would accept
+    static final long NOT_A_NUMBER = Long.MIN_VALUE;
+
+    private CommandParser() {
+    }
+
+    static void parse(CharSequence text, Command command) {
+        command.text = text;
+        command.action = Command.Action.UNKNOWN;
+        command.parts = 0;
+
+        int from = 0;
+        int to = text.length();
+        while (from < to && text.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && text.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        if (from == to) {
+            return;
+        }
+
+        int part = 0;
+        int partStart = from;
+        for (int i = from; i < to && part < Command.MAX_PARTS - 1; i++) {
+            if (text.charAt(i) == ';') {
+                setPart(command, part++, partStart, i);
+                partStart = i + 1;
+            }
+        }
+        setPart(command, part, partStart, to);
+        command.parts = part + 1;
+        command.action = action(text, command.start[0], command.end[0]);
+    }
+
+    // Same trimming as String.trim()
+    private static void setPart(Command command, int part, int from, int to) {
+        CharSequence text = command.text;
+        while (from < to && text.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && text.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        command.start[part] = from;
+        command.end[part] = to;
+    }
+
+    private static Command.Action action(CharSequence text, int from, int to) {
+        for (int a = 0; a < ACTIONS.length; a++) {
+            if (ACTIONS[a] != Command.Action.UNKNOWN && equalsIgnoreCase(text, from, to, ACTION_NAMES[a])) {
+                return ACTIONS[a];
+            }
+        }
+        return Command.Action.UNKNOWN;
+    }
+
+    private static boolean equalsIgnoreCase(CharSequence text, int from, int to, String lower) {
+        if (to - from != lower.length()) {
+            return false;
+        }
+        for (int i = 0; i < lower.length(); i++) {
+            if (Character.toLowerCase(text.charAt(from + i)) != lower.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static void validateDate(Command command, int part) throws InvalidCommandException {
+        validateDate(command.text, command.start[part], command.end[part]);
+    }
+
+    // "d Monthname yyyy" or "yyyy-mm-dd" (see EventDates). A date that doesn't parse is
+    // taken apart the way the old split("\\s+") code did, to say what is wrong with it.
+    static void validateDate(CharSequence text, int from, int to) throws InvalidCommandException {
+        if (from == to) {
+            throw new InvalidCommandException(InvalidCommandException.Kind.BAD_DATE, "No Date Found.");
+        }
+        LocalDate parsed = EventDates.parseDate(text, from, to);
+        if (parsed != null && parsed.getYear() >= 1900 && parsed.getYear() <= 2100) {
+            return;
+        }
+        int lo = from;
+        int hi = to;
+        while (lo < hi && text.charAt(lo) <= ' ') {
+            lo++;
+        }
+        while (hi > lo && text.charAt(hi - 1) <= ' ') {
+            hi--;
+        }
+
+        // Cut into whitespace-separated tokens, we only need to know about the first three
+        int tokens = 0;
+        int s0 = 0, e0 = 0, s1 = 0, e1 = 0, s2 = 0, e2 = 0;
+        int i = lo;
+        while (i < hi) {
+            int start = i;
+            while (i < hi && !isRegexSpace(text.charAt(i))) {
+                i++;
+            }
+            if (tokens == 0) {
+                s0 = start;
+                e0 = i;
+            } else if (tokens == 1) {
+                s1 = start;
+                e1 = i;
+            } else if (tokens == 2) {
+                s2 = start;
+                e2 = i;
+            }
+            tokens++;
+            while (i < hi && isRegexSpace(text.charAt(i))) {
+                i++;
+            }
+        }
+        if (tokens != 3) {
+            throw new InvalidCommandException(InvalidCommandException.Kind.BAD_DATE,
+                "You entered: " + text.subSequence(from, to) + ". You're supposed to format the date and include a day, month and year"
+            );
+        }
+
+        long day = parseInt(text, s0, e0);
+        if (day == NOT_A_NUMBER) {
+            throw new InvalidCommandException(InvalidCommandException.Kind.BAD_DATE, "You didn't enter a number. You entered: " + text.subSequence(s0, e0) + ".");
+        }
+        if (day < 1 || day > 31) {
+            throw new InvalidCommandException(InvalidCommandException.Kind.BAD_DATE, "The Day you entered is too high or too low. You entered: " + text.subSequence(s0, e0) + ".");
+        }
+
+        int month = EventDates.monthNumber(text, s1, e1);
+        if (month == 0) {
+            throw new InvalidCommandException(InvalidCommandException.Kind.BAD_DATE, "Month must be a full month name. You entered: " + text.subSequence(s1, e1) + ".");
+        }
+
+        long year = parseInt(text, s2, e2);
+        if (year == NOT_A_NUMBER) {
+            throw new InvalidCommandException(InvalidCommandException.Kind.BAD_DATE, "Year must be a number. You entered: " + text.subSequence(s2, e2) + ".");
+        }
+        if (year < 1900 || year > 2100) {
+            throw new InvalidCommandException(InvalidCommandException.Kind.BAD_DATE, "Year must be between 1900 and 2100. You entered: " + text.subSequence(s2, e2) + ".");
+        }
+        // e.g. 31 February, or a day or year written as "+5" or "005", isn't a day the store can be keyed by
+        if (day > EventDates.daysInMonth((int) year, month) || !isDigits(text, s0, e0, 1, 2) || !isDigits(text, s2, e2, 4, 4)) {
+            throw new InvalidCommandException(InvalidCommandException.Kind.BAD_DATE, "The Day you entered is too high or too low. You entered: " + text.subSequence(s0, e0) + ".");
+        }
+    }
+
+    static void validateTime(Command command, int part) throws InvalidCommandException {
+        validateTime(command.text, command.start[part], command.end[part]);
+    }
+
+    // "7 pm", "7:30 pm" or "19:30" (see EventDates)
+    static void validateTime(CharSequence text, int from, int to) throws InvalidCommandException {
+        if (from == to) {
+            throw new InvalidCommandException(InvalidCommandException.Kind.BAD_TIME, "No Time Found.");
+        }
+        if (EventDates.parseMinuteOfDay(text, from, to) != EventDates.UNKNOWN_MINUTE) {
+            return;
+        }
+        throw new InvalidCommandException(InvalidCommandException.Kind.BAD_TIME,
+                "You entered: " + text.subSequence(from, to) + ". You're supposed to write a time like 6 pm, 7:30 pm or 19:30. Try again"
+        );
+    }
+
+    static LocalDate date(Command command, int part) {
+        return command.has(part) ? EventDates.parseDate(command.text, command.start[part], command.end[part]) : null;
+    }
+
+    // Accepts what Integer.parseInt accepts: an optional sign and digits that fit in an int
+    static long parseInt(CharSequence text, int from, int to) {
+        if (from == to) {
+            return NOT_A_NUMBER;
+        }
+        boolean negative = false;
+        int i = from;
+        char first = text.charAt(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+            if (i == to) {
+                return NOT_A_NUMBER;
+            }
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return NOT_A_NUMBER;
+            }
+            value = value * 10 + (c - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return NOT_A_NUMBER;
+            }
+        }
+        value = negative ? -value : value;
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? NOT_A_NUMBER : value;
+    }
+
+    private static boolean isDigits(CharSequence text, int from, int to, int min, int max) {
+        int length = to - from;
+        if (length < min || length > max) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The characters \s matches in a java.util.regex pattern
+    private static boolean isRegexSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.time.*;
+import java.util.*;
+
+/**
+ * A read-only, columnar copy of the board for when millions of events have to
+ * sit in memory without anyone writing to them. Each event is one slot across a
+ * few primitive arrays: an int epoch day, a short minute of the day and int ids
+ * into a string table that holds every distinct date, time and description
+ * once. That is 18 bytes a slot, where the live store pays for an Event, its
+ * Strings and a skip-list node.
+ *
+ * Slots are sorted the way the live store sorts (day, then Event.BY_TIME) and
+ * duplicates are dropped the same way, so a day is one contiguous run found by
+ * binary search. Events are only built when something asks for a day.
+ *
+ * @author tombr
+ */
+final class CompactEventStore {
+    // Sort keys pack (day, minute, slot) into one long, so the days of years 0-9999
+    // are shifted to start at 0 and a store holds at most 2^30 events
+    private static final long DAY_OFFSET = -LocalDate.of(0, 1, 1).toEpochDay();
+    private static final int MAX_EVENTS = 1 << 30;
+
+    private final String[] strings;
+    private final int[] epochDays;
+    private final short[] minutes;
+    private final int[] dates;
+    private final int[] times;
+    private final int[] descriptions;
+    private final int size;
+
+    private CompactEventStore(String[] strings, int[] epochDays, short[] minutes,
+            int[] dates, int[] times, int[] descriptions, int size) {
+        this.strings = strings;
+        this.epochDays = epochDays;
+        this.minutes = minutes;
+        this.dates = dates;
+        this.times = times;
+        this.descriptions = descriptions;
+        this.size = size;
+    }
+
+    static CompactEventStore of(Collection<NavigableSet<Event>> days) {
+        Builder builder = new Builder();
+        for (NavigableSet<Event> events : days) {
+            for (Event e : events) {
+                builder.add(e);
+            }
+        }
+        return builder.build();
+    }
+
+    int size() {
+        return size;
+    }
+
+    // The sorted events on a day, or null if there are none, like EventStore.eventsOn
+    NavigableSet<Event> eventsOn(LocalDate day) {
+        if (day == null) {
+            return null;
+        }
+        int from = firstSlotOn(day.toEpochDay());
+        return from < size && epochDays[from] == day.toEpochDay() ? dayAt(from) : null;
+    }
+
+    // Every day in date order, each one built as the iterator reaches it
+    Collection<NavigableSet<Event>> allDays() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<NavigableSet<Event>> iterator() {
+                return new Iterator<>() {
+                    private int slot;
+
+                    @Override
+                    public boolean hasNext() {
+                        return slot < size;
+                    }
+
+                    @Override
+                    public NavigableSet<Event> next() {
+                        if (slot >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        NavigableSet<Event> day = dayAt(slot);
+                        slot += day.size();
+                        return day;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                int days = 0;
+                for (int i = 0; i < size; i++) {
+                    if (i == 0 || epochDays[i] != epochDays[i - 1]) {
+                        days++;
+                    }
+                }
+                return days;
+            }
+        };
+    }
+
+    private NavigableSet<Event> dayAt(int from) {
+        int epochDay = epochDays[from];
+        LocalDate day = LocalDate.ofEpochDay(epochDay);
+        NavigableSet<Event> events = new TreeSet<>(Event.BY_TIME);
+        for (int i = from; i < size && epochDays[i] == epochDay; i++) {
+            events.add(new Event(strings[dates[i]], strings[times[i]], strings[descriptions[i]], day, minutes[i]));
+        }
+        return events;
+    }
+
+    private int firstSlotOn(long epochDay) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (epochDays[mid] < epochDay) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Collects events in any order; build() sorts them and drops duplicates.
+     * Events whose date isn't a real day are ignored, as EventStore.add does.
+     */
+    static final class Builder {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private int[] epochDays = new int[1024];
+        private short[] minutes = new short[1024];
+        private int[] dates = new int[1024];
+        private int[] times = new int[1024];
+        private int[] descriptions = new int[1024];
+        private int size;
+
+        void add(Event e) {
+            if (!e.hasDay()) {
+                return;
+            }
+            if (size == epochDays.length) {
+                if (size == MAX_EVENTS) {
+                    throw new IllegalStateException("A compact store holds at most " + MAX_EVENTS + " events");
+                }
+                int capacity = (int) Math.min(MAX_EVENTS, size * 2L);
+                epochDays = Arrays.copyOf(epochDays, capacity);
+                minutes = Arrays.copyOf(minutes, capacity);
+                dates = Arrays.copyOf(dates, capacity);
+                times = Arrays.copyOf(times, capacity);
+                descriptions = Arrays.copyOf(descriptions, capacity);
+            }
+            epochDays[size] = e.epochDay;
+            minutes[size] = e.minuteOfDay;
+            dates[size] = id(e.date);
+            times[size] = id(e.time);
+            descriptions[size] = id(e.description);
+            size++;
+        }
+
+        private int id(String s) {
+            Integer id = ids.get(s);
+            if (id == null) {
+                id = strings.size();
+                ids.put(s, id);
+                strings.add(s);
+            }
+            return id;
+        }
+
+        CompactEventStore build() {
+            // (day, minute, slot) sorts as one long; only runs that share a day and
+            // minute still need the text comparisons Event.BY_TIME makes
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = (epochDays[i] + DAY_OFFSET) << 41 | (long) minutes[i] << 30 | i;
+            }
+            Arrays.sort(keys);
+
+            String[] table = strings.toArray(new String[0]);
+            int[] order = new int[size];
+            int kept = 0;
+            int runStart = 0;
+            while (runStart < size) {
+                int runEnd = runStart + 1;
+                while (runEnd < size && keys[runEnd] >>> 30 == keys[runStart] >>> 30) {
+                    runEnd++;
+                }
+                int first = kept;
+                for (int k = runStart; k < runEnd; k++) {
+                    int slot = (int) (keys[k] & (MAX_EVENTS - 1));
+                    // Insertion sort, runs are a handful of events at one minute of one day
+                    int j = kept;
+                    int c = 1;
+                    while (j > first && (c = compareText(table, order[j - 1], slot)) > 0) {
+                        order[j] = order[j - 1];
+                        j--;
+                    }
+                    if (j > first && c == 0) {
+                        // A duplicate: put back what we shifted and skip it
+                        System.arraycopy(order, j + 1, order, j, kept - j);
+                        continue;
+                    }
+                    order[j] = slot;
+                    kept++;
+                }
+                runStart = runEnd;
+            }
+
+            int[] sortedDays = new int[kept];
+            short[] sortedMinutes = new short[kept];
+            int[] sortedDates = new int[kept];
+            int[] sortedTimes = new int[kept];
+            int[] sortedDescriptions = new int[kept];
+            for (int i = 0; i < kept; i++) {
+                int slot = order[i];
+                sortedDays[i] = epochDays[slot];
+                sortedMinutes[i] = minutes[slot];
+                sortedDates[i] = dates[slot];
+                sortedTimes[i] = times[slot];
+                sortedDescriptions[i] = descriptions[slot];
+            }
+            return new CompactEventStore(table, sortedDays, sortedMinutes,
+                    sortedDates, sortedTimes, sortedDescriptions, kept);
+        }
+
+        // The time and description part of Event.BY_TIME, for two slots on the same day and minute
+        private int compareText(String[] table, int a, int b) {
+            int c = String.CASE_INSENSITIVE_ORDER.compare(table[times[a]], table[times[b]]);
+            if (c == 0) {
+                c = String.CASE_INSENSITIVE_ORDER.compare(table[descriptions[a]], table[descriptions[b]]);
+            }
+            return c;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.lang.management.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Counts connections and reports thread usage so the execution modes can be
+ * compared under load.
+ *
+ * @author tombr
+ */
+public class ConnectionStats {
+    private final ExecutionMode mode;
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    // Times the accept loop found eventboard.maxConnections reached and left clients in the backlog
+    private final AtomicLong waited = new AtomicLong();
+    private final AtomicLong idleClosed = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peakActive = new AtomicInteger();
+
+    public ConnectionStats(ExecutionMode mode) {
+        this.mode = mode;
+    }
+
+    public void connectionAccepted() {
+        accepted.incrementAndGet();
+    }
+
+    public void connectionRejected() {
+        rejected.incrementAndGet();
+    }
+
+    public void connectionsWaited() {
+        waited.incrementAndGet();
+    }
+
+    public void idleConnectionClosed() {
+        idleClosed.incrementAndGet();
+    }
+
+    public void handlerStarted() {
+        int now = active.incrementAndGet();
+        peakActive.accumulateAndGet(now, Math::max);
+    }
+
+    public void handlerFinished() {
+        active.decrementAndGet();
+    }
+
+    public int activeConnections() {
+        return active.get();
+    }
+
+    public long acceptedConnections() {
+        return accepted.get();
+    }
+
+    public long rejectedConnections() {
+        return rejected.get();
+    }
+
+    public long connectionWaits() {
+        return waited.get();
+    }
+
+    public long idleConnectionsClosed() {
+        return idleClosed.get();
+    }
+
+    public String report() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heapUsedMb = memory.getHeapMemoryUsage().getUsed() / (1024 * 1024);
+
+        // The thread MXBean only counts platform threads, so in VIRTUAL mode
+        // the gap between active connections and live threads is the saving.
+        return String.format(
+                "[%s] connections: active=%d peak=%d accepted=%d rejected=%d waited=%d idle closed=%d | platform threads: live=%d peak=%d | heap used=%dMB",
+                mode, active.get(), peakActive.get(), accepted.get(), rejected.get(), waited.get(), idleClosed.get(),
+                threads.getThreadCount(), threads.getPeakThreadCount(), heapUsedMb);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * Decides which shard owns a day. Every shard is put on a ring of 64-bit
+ * hashes many times over (virtual nodes), and a day belongs to the first shard
+ * point at or after the day's own hash. Adding or removing a shard only moves
+ * the days next to its points, about 1/n of them, instead of reshuffling all
+ * of them the way day % n would.
+ *
+ * @author tombr
+ */
+final class ConsistentHashRing {
+    private final List<String> shards;
+    // Sorted ring points and the shard index at each
+    private final long[] points;
+    private final int[] owners;
+
+    ConsistentHashRing(List<String> shards, int virtualNodes) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("A ring needs at least one shard");
+        }
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes must be at least 1");
+        }
+        this.shards = List.copyOf(shards);
+
+        TreeMap<Long, Integer> ring = new TreeMap<>();
+        for (int s = 0; s < shards.size(); s++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                // A clash just means one point fewer for the later shard
+                ring.putIfAbsent(hash(shards.get(s) + "#" + v), s);
+            }
+        }
+        points = new long[ring.size()];
+        owners = new int[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, Integer> point : ring.entrySet()) {
+            points[i] = point.getKey();
+            owners[i] = point.getValue();
+            i++;
+        }
+    }
+
+    int size() {
+        return shards.size();
+    }
+
+    String shard(int index) {
+        return shards.get(index);
+    }
+
+    // Index of the shard that owns the day
+    int shardFor(long epochDay) {
+        int i = Arrays.binarySearch(points, mix(epochDay));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    private static long hash(String text) {
+        long h = 1125899906842597L;
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            h = 31 * h + b;
+        }
+        return mix(h);
+    }
+
+    // The finalizer from MurmurHash3, so consecutive days land far apart on the ring
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
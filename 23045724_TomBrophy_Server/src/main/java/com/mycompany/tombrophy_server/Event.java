@@ -0,0 +1,121 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Simple class to hold event data
+class Event {
+    // epochDay of an event whose date text isn't a real calendar day
+    static final int NO_DAY = Integer.MIN_VALUE;
+    // Date and time text repeats across many events ("2 November 2025", "6 pm"), so every
+    // event shares one String per spelling. Descriptions are kept as they are.
+    private static final int MAX_POOLED_TEXT = 1 << 16;
+    private static final ConcurrentHashMap<String, String> TEXT_POOL = new ConcurrentHashMap<>();
+
+    final String date;
+    final String time;
+    final String description;
+    // Parsed once so the store can sort and index without looking at the strings again
+    final int epochDay;
+    final short minuteOfDay;
+    // Case-insensitive, computed once; equal events always have equal hashes
+    private final int hash;
+
+    // Order within a day: by time of day, then the text of the time and description
+    // ignoring case, so two events only compare equal when they are duplicates
+    static final Comparator<Event> BY_TIME = (a, b) -> {
+        int c = Integer.compare(a.minuteOfDay, b.minuteOfDay);
+        if (c == 0) {
+            c = String.CASE_INSENSITIVE_ORDER.compare(a.time, b.time);
+        }
+        if (c == 0) {
+            c = String.CASE_INSENSITIVE_ORDER.compare(a.description, b.description);
+        }
+        return c;
+    };
+
+    // A date and time that parse are stored in their canonical spelling, so "2025-11-02; 19:30"
+    // and "2 november 2025; 7:30 pm" are the same event. Text that doesn't parse is kept as it is.
+    public Event(String date, String time, String description) {
+        EventDates.Parsed d = EventDates.date(date.trim());
+        EventDates.Parsed t = EventDates.time(time.trim());
+        this.date = pooled(d.valid() ? d.canonical : d.text);
+        this.time = pooled(t.valid() ? t.canonical : t.text);
+        this.description = description.trim();
+        this.epochDay = d.valid() ? d.value : NO_DAY;
+        this.minuteOfDay = (short) t.value;
+        this.hash = hash(this.date, this.time, this.description);
+    }
+
+    // For text that is already trimmed and parsed, e.g. from a binary snapshot
+    Event(String date, String time, String description, LocalDate day, int minuteOfDay) {
+        this.date = pooled(day != null ? EventDates.date(date).canonical : date);
+        this.time = pooled(minuteOfDay != EventDates.UNKNOWN_MINUTE ? EventDates.time(time).canonical : time);
+        this.description = description;
+        this.epochDay = day == null ? NO_DAY : (int) day.toEpochDay();
+        this.minuteOfDay = (short) minuteOfDay;
+        this.hash = hash(this.date, this.time, this.description);
+    }
+
+    // The calendar day, or null if the date text isn't one
+    LocalDate day() {
+        return epochDay == NO_DAY ? null : LocalDate.ofEpochDay(epochDay);
+    }
+
+    boolean hasDay() {
+        return epochDay != NO_DAY;
+    }
+
+    // This is used to uniquely identify an event for removal
+    @Override
+    public String toString() {
+        return String.format("%s; %s; %s", date, time, description);
+    }
+
+    @Override
+    public boolean equals(Object o ) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Event))
+            return false;
+        Event other = (Event) o;
+        return hash == other.hash && date.equalsIgnoreCase(other.date) && time.equalsIgnoreCase(other.time)
+                && description.equalsIgnoreCase(other.description);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    static int hash(String date, String time, String description) {
+        return 31 * (31 * foldedHash(date) + foldedHash(time)) + foldedHash(description);
+    }
+
+    // Hash of the text with case folded the way equalsIgnoreCase folds it, without a toLowerCase copy
+    static int foldedHash(String s) {
+        int h = 0;
+        for (int i = 0; i < s.length(); i++) {
+            h = 31 * h + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+        }
+        return h;
+    }
+
+    private static String pooled(String text) {
+        String shared = TEXT_POOL.get(text);
+        if (shared != null) {
+            return shared;
+        }
+        // Past the cap someone is sending junk dates and times; stop sharing rather than grow
+        if (TEXT_POOL.size() >= MAX_POOLED_TEXT) {
+            return text;
+        }
+        shared = TEXT_POOL.putIfAbsent(text, text);
+        return shared != null ? shared : text;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+
+/**
+ * Where events older than eventboard.retentionDays go, so past days stop
+ * taking up memory on the board and being rewritten by every snapshot. Each
+ * month is one file in eventboard.archiveDir, "2025-11.evb.gz", in the binary
+ * snapshot format gzipped (see EventSnapshot.writeCompressed).
+ *
+ * sweep() moves every day before the horizon off the board: it merges the
+ * days into their month's file, and only once the file is in place removes
+ * the events from the store. The removals aren't journaled, so the server asks
+ * for a snapshot afterwards; a crash before that just leaves the events on the
+ * board as well, and the next sweep merges them in again without duplicates.
+ * Followers run their own sweep, nothing about it is replicated.
+ *
+ * A month is only read back when list asks for one of its days, and the last
+ * few months read are kept in memory as CompactEventStores. Days before the
+ * horizon are read-only: adds and removes on them are refused.
+ *
+ * @author tombr
+ */
+final class EventArchive {
+    // Months kept in memory after list has read them
+    private static final int CACHED_MONTHS = 12;
+    private static final CompactEventStore EMPTY = new CompactEventStore.Builder().build();
+
+    private final ServerConfig config;
+    private final EventStore board;
+    // Null until the first sweep; days before it are archived
+    private volatile LocalDate archivedBefore;
+
+    // Guarded by itself, least recently read first
+    private final LinkedHashMap<YearMonth, CompactEventStore> months = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<YearMonth, CompactEventStore> eldest) {
+            return size() > CACHED_MONTHS;
+        }
+    };
+
+    EventArchive(ServerConfig config, EventStore board) {
+        this.config = config;
+        this.board = board;
+    }
+
+    boolean enabled() {
+        return config.retentionDays > 0;
+    }
+
+    LocalDate archivedBefore() {
+        return archivedBefore;
+    }
+
+    boolean isArchived(LocalDate day) {
+        LocalDate before = archivedBefore;
+        return day != null && before != null && day.isBefore(before);
+    }
+
+    // The archived events on the day along with any still on the board (a sweep that is
+    // part way through, or a change replicated since), or null if there are none
+    NavigableSet<Event> eventsOn(LocalDate day, Collection<Event> onBoard) throws IOException {
+        NavigableSet<Event> events = month(YearMonth.from(day)).eventsOn(day);
+        if (onBoard == null || onBoard.isEmpty()) {
+            return events;
+        }
+        if (events == null) {
+            events = new TreeSet<>(Event.BY_TIME);
+        }
+        events.addAll(onBoard);
+        return events;
+    }
+
+    // Moves every day before today - retentionDays into the archive and returns how many
+    // events left the board. A month that can't be written keeps its events on the board.
+    int sweep() {
+        long start = System.nanoTime();
+        LocalDate before = LocalDate.now().minusDays(config.retentionDays);
+        // Writes to these days are refused from here on, so the days being copied stay put
+        archivedBefore = before;
+
+        // Days come in date order, so one month at a time is held in memory
+        int archived = 0;
+        int monthCount = 0;
+        YearMonth month = null;
+        List<Event> events = new ArrayList<>();
+        for (NavigableSet<Event> day : board.before(before)) {
+            Event first = day.isEmpty() ? null : day.first();
+            if (first == null) {
+                continue;
+            }
+            YearMonth dayMonth = YearMonth.from(first.day());
+            if (!dayMonth.equals(month)) {
+                archived += archive(month, events);
+                monthCount += events.isEmpty() ? 0 : 1;
+                month = dayMonth;
+                events = new ArrayList<>();
+            }
+            events.addAll(day);
+        }
+        archived += archive(month, events);
+        monthCount += events.isEmpty() ? 0 : 1;
+
+        if (archived > 0) {
+            ServerLog.info("Archived " + archived + " events from before " + EventDates.formatDate(before)
+                    + " into " + monthCount + (monthCount == 1 ? " month" : " months") + " of " + config.archiveDir
+                    + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+        return archived;
+    }
+
+    // Writes the month, then takes its events off the board. Returns how many it took off.
+    private int archive(YearMonth month, List<Event> events) {
+        if (events.isEmpty()) {
+            return 0;
+        }
+        try {
+            write(month, events);
+        } catch (IOException e) {
+            ServerLog.error("Could not archive " + month + ": " + e.getMessage());
+            return 0;
+        }
+        int removed = 0;
+        for (Event e : events) {
+            if (board.remove(e) != null) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    // Merges the events into the month's file and keeps the merged month in memory
+    private void write(YearMonth month, List<Event> events) throws IOException {
+        Path file = fileFor(month);
+        CompactEventStore.Builder builder = new CompactEventStore.Builder();
+        if (Files.exists(file)) {
+            EventSnapshot.readCompressed(file, builder::add);
+        }
+        for (Event e : events) {
+            builder.add(e);
+        }
+        CompactEventStore merged = builder.build();
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        EventSnapshot.writeCompressed(file, merged.allDays());
+        synchronized (months) {
+            months.put(month, merged);
+        }
+    }
+
+    private CompactEventStore month(YearMonth month) throws IOException {
+        synchronized (months) {
+            CompactEventStore store = months.get(month);
+            if (store != null) {
+                return store;
+            }
+        }
+        // Read outside the lock; two lists racing for one month just both read it
+        Path file = fileFor(month);
+        CompactEventStore store = EMPTY;
+        if (Files.exists(file)) {
+            CompactEventStore.Builder builder = new CompactEventStore.Builder();
+            EventSnapshot.readCompressed(file, builder::add);
+            store = builder.build();
+        }
+        synchronized (months) {
+            // A sweep may have written the month meanwhile; its copy is the newer one
+            CompactEventStore current = months.putIfAbsent(month, store);
+            return current != null ? current : store;
+        }
+    }
+
+    private Path fileFor(YearMonth month) {
+        return Paths.get(config.archiveDir).resolve(month + ".evb.gz");
+    }
+}
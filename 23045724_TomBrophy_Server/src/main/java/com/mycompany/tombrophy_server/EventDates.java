@@ -0,0 +1,289 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.time.*;
+
+/**
+ * Turns the protocol's date and time text into values that can be compared,
+ * and into the one spelling the board stores: "2 November 2025" and "7:30 pm".
+ * Dates can be written "d Monthname yyyy" (any case) or "yyyy-mm-dd", and must
+ * be a real calendar day; times "7 pm", "7:30PM" or 24-hour "19:30". The
+ * server and the client's importer both go through here, so anything the
+ * importer accepts the server accepts too, stored the same way.
+ *
+ * The same few dates and times come up over and over, so recently seen text
+ * is kept in a small cache along with what it parsed to. The parsers return
+ * null (or UNKNOWN_MINUTE) instead of throwing.
+ *
+ * @author tombr
+ */
+public final class EventDates {
+    // Sorts after every real time of day
+    static final int UNKNOWN_MINUTE = 24 * 60;
+
+    private static final String[] MONTHS = {
+        "january", "february", "march", "april", "may", "june",
+        "july", "august", "september", "october", "november", "december"
+    };
+    private static final String[] MONTH_NAMES = {
+        "January", "February", "March", "April", "May", "June",
+        "July", "August", "September", "October", "November", "December"
+    };
+
+    // Slots in each cache, a power of two
+    private static final int CACHE_SIZE = 1024;
+
+    // Some date or time text, its canonical spelling (null if it isn't one) and
+    // its epochDay or minute of the day. Immutable, so the caches need no locking:
+    // a thread either sees a whole entry or an older one.
+    static final class Parsed {
+        final String text;
+        final String canonical;
+        final int value;
+
+        Parsed(String text, String canonical, int value) {
+            this.text = text;
+            this.canonical = canonical;
+            this.value = value;
+        }
+
+        boolean valid() {
+            return canonical != null;
+        }
+    }
+
+    // Direct-mapped on the text's hash; a clash just replaces the older entry
+    private static final Parsed[] DATE_CACHE = new Parsed[CACHE_SIZE];
+    private static final Parsed[] TIME_CACHE = new Parsed[CACHE_SIZE];
+
+    private EventDates() {
+    }
+
+    // "2 November 2025" for any spelling of a real day, otherwise null
+    public static String normalizeDate(String text) {
+        return text == null ? null : date(text.trim()).canonical;
+    }
+
+    // "7 pm" or "7:30 pm" for any spelling of a time, otherwise null
+    public static String normalizeTime(String text) {
+        return text == null ? null : time(text.trim()).canonical;
+    }
+
+    public static LocalDate parseDate(String text) {
+        if (text == null) {
+            return null;
+        }
+        Parsed p = date(text);
+        return p.valid() ? LocalDate.ofEpochDay(p.value) : null;
+    }
+
+    public static LocalTime parseTime(String text) {
+        int minute = parseMinuteOfDay(text);
+        return minute == UNKNOWN_MINUTE ? null : LocalTime.of(minute / 60, minute % 60);
+    }
+
+    // Minute of the day, or UNKNOWN_MINUTE
+    static int parseMinuteOfDay(String text) {
+        return text == null ? UNKNOWN_MINUTE : time(text).value;
+    }
+
+    static Parsed date(String text) {
+        int slot = text.hashCode() & (CACHE_SIZE - 1);
+        Parsed p = DATE_CACHE[slot];
+        if (p == null || !p.text.equals(text)) {
+            LocalDate day = parseDate(text, 0, text.length());
+            p = day == null ? new Parsed(text, null, 0) : new Parsed(text, formatDate(day), (int) day.toEpochDay());
+            DATE_CACHE[slot] = p;
+        }
+        return p;
+    }
+
+    static Parsed time(String text) {
+        int slot = text.hashCode() & (CACHE_SIZE - 1);
+        Parsed p = TIME_CACHE[slot];
+        if (p == null || !p.text.equals(text)) {
+            int minute = parseMinuteOfDay(text, 0, text.length());
+            p = new Parsed(text, minute == UNKNOWN_MINUTE ? null : formatTime(minute), minute);
+            TIME_CACHE[slot] = p;
+        }
+        return p;
+    }
+
+    public static String formatDate(LocalDate day) {
+        return day.getDayOfMonth() + " " + MONTH_NAMES[day.getMonthValue() - 1] + " " + day.getYear();
+    }
+
+    // 0 -> "12 am", 19 * 60 + 5 -> "7:05 pm"
+    static String formatTime(int minuteOfDay) {
+        int hour = minuteOfDay / 60;
+        int minute = minuteOfDay % 60;
+        int hour12 = hour % 12 == 0 ? 12 : hour % 12;
+        String half = hour < 12 ? " am" : " pm";
+        if (minute == 0) {
+            return hour12 + half;
+        }
+        return hour12 + (minute < 10 ? ":0" : ":") + minute + half;
+    }
+
+    // Either date format over text[from, to), so a command can be parsed where it sits
+    static LocalDate parseDate(CharSequence text, int from, int to) {
+        int n = to;
+        int i = skipSpaces(text, from, n);
+        while (n > i && Character.isWhitespace(text.charAt(n - 1))) {
+            n--;
+        }
+        if (n - i == 10 && text.charAt(i + 4) == '-' && text.charAt(i + 7) == '-') {
+            return isoDate(text, i);
+        }
+
+        int dayStart = i;
+        int day = 0;
+        while (i < n && isDigit(text.charAt(i)) && i - dayStart < 2) {
+            day = day * 10 + (text.charAt(i++) - '0');
+        }
+        if (i == dayStart || i >= n || !Character.isWhitespace(text.charAt(i))) {
+            return null;
+        }
+        i = skipSpaces(text, i, n);
+
+        int monthStart = i;
+        while (i < n && !Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        int month = monthNumber(text, monthStart, i);
+        if (month == 0) {
+            return null;
+        }
+        i = skipSpaces(text, i, n);
+
+        int yearStart = i;
+        int year = 0;
+        while (i < n && isDigit(text.charAt(i)) && i - yearStart < 4) {
+            year = year * 10 + (text.charAt(i++) - '0');
+        }
+        if (i - yearStart != 4 || i != n) {
+            return null;
+        }
+        if (day < 1 || day > daysInMonth(year, month)) {
+            return null;
+        }
+        return LocalDate.of(year, month, day);
+    }
+
+    // "yyyy-mm-dd" starting at i
+    private static LocalDate isoDate(CharSequence text, int i) {
+        int year = digits(text, i, i + 4);
+        int month = digits(text, i + 5, i + 7);
+        int day = digits(text, i + 8, i + 10);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+            return null;
+        }
+        return LocalDate.of(year, month, day);
+    }
+
+    static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    // 1-12 for a full month name in any case, 0 if it isn't one
+    static int monthNumber(CharSequence text, int from, int to) {
+        int length = to - from;
+        for (int m = 0; m < MONTHS.length; m++) {
+            String name = MONTHS[m];
+            if (name.length() != length) {
+                continue;
+            }
+            boolean match = true;
+            for (int k = 0; k < length && match; k++) {
+                match = Character.toLowerCase(text.charAt(from + k)) == name.charAt(k);
+            }
+            if (match) {
+                return m + 1;
+            }
+        }
+        return 0;
+    }
+
+    // "7 pm", "7:30 pm", "7:30PM", "12 am", "19:30" over text[from, to) -> minute of the day, or UNKNOWN_MINUTE
+    static int parseMinuteOfDay(CharSequence text, int from, int to) {
+        int n = to;
+        int i = skipSpaces(text, from, n);
+
+        int hourStart = i;
+        int hour = 0;
+        while (i < n && isDigit(text.charAt(i)) && i - hourStart < 2) {
+            hour = hour * 10 + (text.charAt(i++) - '0');
+        }
+        if (i == hourStart) {
+            return UNKNOWN_MINUTE;
+        }
+
+        int minute = 0;
+        char separator = i < n ? text.charAt(i) : ' ';
+        boolean hasMinutes = separator == ':' || separator == '.';
+        if (hasMinutes) {
+            i++;
+            if (i + 2 > n || !isDigit(text.charAt(i)) || !isDigit(text.charAt(i + 1))) {
+                return UNKNOWN_MINUTE;
+            }
+            minute = (text.charAt(i) - '0') * 10 + (text.charAt(i + 1) - '0');
+            i += 2;
+            if (minute > 59) {
+                return UNKNOWN_MINUTE;
+            }
+        }
+        i = skipSpaces(text, i, n);
+
+        if (i == n) {
+            // 24-hour clock, always written with a colon
+            return separator == ':' && hour <= 23 ? hour * 60 + minute : UNKNOWN_MINUTE;
+        }
+        if (hour < 1 || hour > 12 || i + 2 > n || Character.toLowerCase(text.charAt(i + 1)) != 'm') {
+            return UNKNOWN_MINUTE;
+        }
+        char half = Character.toLowerCase(text.charAt(i));
+        if ((half != 'a' && half != 'p') || skipSpaces(text, i + 2, n) != n) {
+            return UNKNOWN_MINUTE;
+        }
+        int hour24 = hour % 12 + (half == 'p' ? 12 : 0);
+        return hour24 * 60 + minute;
+    }
+
+    // The value of text[from, to) if it is all digits, otherwise -1
+    private static int digits(CharSequence text, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int skipSpaces(CharSequence text, int i, int to) {
+        while (i < to && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
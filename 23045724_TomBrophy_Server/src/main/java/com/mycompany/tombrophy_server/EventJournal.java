@@ -0,0 +1,387 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Append-only write-ahead journal of adds and removes. Each record is one line,
+ * "+ date; time; description" or "- date; time; description", so the file reads
+ * like events.txt. A single writer thread drains everything queued since its
+ * last write in one go (group commit), and every so often folds the journal
+ * into a fresh events.txt snapshot and truncates it.
+ *
+ * Replaying is idempotent (adding an event that is there, or removing one that
+ * is not, changes nothing), so a record that lands in the journal after the
+ * snapshot that already contains it does no harm.
+ *
+ * If a write fails, nothing from that batch on counts as committed: waiters get
+ * the error, and the journal stops writing (it may end in a torn record) until
+ * a snapshot of the board, which holds those changes, has been taken.
+ *
+ * @author tombr
+ */
+public class EventJournal {
+    static final char ADD = '+';
+    static final char REMOVE = '-';
+
+    public enum FsyncPolicy {
+        // fsync every group commit before anyone is acknowledged
+        ALWAYS,
+        // fsync in the background every eventboard.fsyncMillis
+        INTERVAL,
+        // leave it to the operating system
+        NEVER;
+
+        public static FsyncPolicy parse(String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return INTERVAL;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown fsync policy: " + value
+                        + ". Use one of " + Arrays.toString(values()));
+            }
+        }
+    }
+
+    // When an add or remove is acknowledged to the client
+    public enum Durability {
+        // Once the journal writer has written it (and forced it with fsync=ALWAYS)
+        FLUSHED,
+        // As soon as it is on the board and queued for the writer. A crash can lose
+        // the last group commit's worth of changes that clients were told had worked.
+        IMMEDIATE;
+
+        public static Durability parse(String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return FLUSHED;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown durability: " + value
+                        + ". Use one of " + Arrays.toString(values()));
+            }
+        }
+    }
+
+    // Writes a full snapshot of the current board
+    public interface Snapshotter {
+        void saveSnapshot() throws IOException;
+    }
+
+    // Told about every record as it is queued, in sequence order (replication uses it)
+    public interface Listener {
+        void appended(long seq, String record);
+    }
+
+    private final ServerConfig config;
+    private final Snapshotter snapshotter;
+    private final ServerMetrics metrics;
+
+    // Guarded by lock
+    private final Object lock = new Object();
+    private List<String> queue = new ArrayList<>();
+    private long appendedSeq;
+    private long committedSeq;
+    // The write that failed, until a snapshot has caught up with it. committedSeq stays short of it.
+    private IOException failure;
+    private boolean compactRequested;
+    private boolean snapshotRequested;
+    private boolean closed;
+
+    // Writer thread only
+    private FileChannel channel;
+    private int recordsSinceCompaction;
+
+    private volatile boolean dirty;
+    private volatile Listener listener;
+    private Thread writer;
+    private ScheduledExecutorService scheduler;
+
+    public EventJournal(ServerConfig config, Snapshotter snapshotter, ServerMetrics metrics) {
+        this.config = config;
+        this.snapshotter = snapshotter;
+        this.metrics = metrics;
+    }
+
+    public void open() throws IOException {
+        channel = FileChannel.open(Paths.get(config.journalFile),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        recordsSinceCompaction = channel.size() > 0 ? 1 : 0;
+
+        writer = new Thread(this::writeLoop, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "journal-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        if (config.compactSeconds > 0) {
+            scheduler.scheduleWithFixedDelay(this::requestCompaction,
+                    config.compactSeconds, config.compactSeconds, TimeUnit.SECONDS);
+        }
+        if (config.fsync == FsyncPolicy.INTERVAL) {
+            scheduler.scheduleWithFixedDelay(this::forceIfDirty,
+                    config.fsyncMillis, config.fsyncMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Queues one record and returns its sequence number for awaitCommitted
+    public long append(char op, Event e) {
+        String record = op + " " + e.date + "; " + e.time + "; " + e.description + "\n";
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            queue.add(record);
+            appendedSeq++;
+            Listener l = listener;
+            if (l != null) {
+                l.appended(appendedSeq, record);
+            }
+            lock.notifyAll();
+            return appendedSeq;
+        }
+    }
+
+    // Blocks until the record with this sequence number has been written
+    // (and forced to disk with the ALWAYS policy). Throws if the journal failed first.
+    public void awaitCommitted(long seq) throws IOException {
+        synchronized (lock) {
+            while (committedSeq < seq && !closed) {
+                if (failure != null) {
+                    throw new IOException("The journal could not be written: " + failure.getMessage(), failure);
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    public void requestCompaction() {
+        synchronized (lock) {
+            compactRequested = true;
+            lock.notifyAll();
+        }
+    }
+
+    // For when the board changed without a journal record (the retention sweep moved
+    // events to the archive): the next compaction writes a snapshot even if the journal is empty
+    public void requestSnapshot() {
+        synchronized (lock) {
+            snapshotRequested = true;
+            compactRequested = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            List<String> batch;
+            long upTo;
+            boolean compact;
+            boolean snapshot;
+            boolean failing;
+            synchronized (lock) {
+                while (queue.isEmpty() && !compactRequested && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed && queue.isEmpty()) {
+                    return;
+                }
+                batch = queue;
+                queue = new ArrayList<>();
+                upTo = appendedSeq;
+                compact = compactRequested;
+                compactRequested = false;
+                snapshot = snapshotRequested;
+                snapshotRequested = false;
+                failing = failure != null;
+            }
+
+            // While failing, batches aren't written after what may be a torn record;
+            // the snapshot below covers them
+            if (!batch.isEmpty() && !failing) {
+                try {
+                    write(batch);
+                } catch (IOException e) {
+                    ServerLog.error("Failed to write journal: " + e.getMessage());
+                    failing = true;
+                    synchronized (lock) {
+                        failure = e;
+                    }
+                }
+            }
+            synchronized (lock) {
+                if (!failing) {
+                    committedSeq = upTo;
+                }
+                // Waiters see either their record committed or the failure
+                lock.notifyAll();
+            }
+            if (failing) {
+                if (compact(true)) {
+                    ServerLog.info("Journal recovered: a snapshot now holds every change up to record " + upTo);
+                    synchronized (lock) {
+                        failure = null;
+                        committedSeq = upTo;
+                        lock.notifyAll();
+                    }
+                }
+            } else if (compact || recordsSinceCompaction >= config.compactRecords) {
+                compact(snapshot);
+            }
+        }
+    }
+
+    private void write(List<String> batch) throws IOException {
+        StringBuilder sb = new StringBuilder(batch.size() * 64);
+        for (String record : batch) {
+            sb.append(record);
+        }
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(sb));
+        long start = System.nanoTime();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        metrics.journalWritten(System.nanoTime() - start);
+        if (config.fsync == FsyncPolicy.ALWAYS) {
+            long syncStart = System.nanoTime();
+            channel.force(false);
+            metrics.journalSynced(System.nanoTime() - syncStart);
+        } else {
+            dirty = true;
+        }
+        recordsSinceCompaction += batch.size();
+    }
+
+    private void forceIfDirty() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        try {
+            long start = System.nanoTime();
+            channel.force(false);
+            metrics.journalSynced(System.nanoTime() - start);
+        } catch (IOException e) {
+            ServerLog.error("Failed to sync journal: " + e.getMessage());
+        }
+    }
+
+    // Writer thread: snapshot the board, then start the journal again from empty.
+    // False if that failed.
+    private boolean compact(boolean force) {
+        if (recordsSinceCompaction == 0 && !force) {
+            return true;
+        }
+        try {
+            long start = System.nanoTime();
+            snapshotter.saveSnapshot();
+            metrics.snapshotTaken(System.nanoTime() - start);
+            channel.truncate(0);
+            channel.force(true);
+            recordsSinceCompaction = 0;
+            return true;
+        } catch (IOException e) {
+            // The journal is left as it is, so nothing is lost
+            ServerLog.error("Failed to compact journal: " + e.getMessage());
+            return false;
+        }
+    }
+
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        try {
+            if (writer != null) {
+                writer.join(5000);
+            }
+            if (channel != null) {
+                channel.force(false);
+                channel.close();
+            }
+        } catch (IOException | InterruptedException e) {
+            ServerLog.error("Failed to close journal: " + e.getMessage());
+        }
+    }
+
+    // Applies every complete record in the journal, returns how many there were.
+    // A torn last line from a crash has fewer than three fields and is skipped.
+    public int replay(Consumer<Event> onAdd, Consumer<Event> onRemove) throws IOException {
+        File file = new File(config.journalFile);
+        if (!file.exists()) {
+            return 0;
+        }
+        int count = 0;
+        try (BufferedReader br = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.length() < 2) {
+                    continue;
+                }
+                char op = line.charAt(0);
+                Event e = parseEvent(line.substring(1));
+                if (e == null) {
+                    continue;
+                }
+                if (op == ADD) {
+                    onAdd.accept(e);
+                } else if (op == REMOVE) {
+                    onRemove.accept(e);
+                } else {
+                    continue;
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Parses "date; time; description", returns null for a blank or short line
+    static Event parseEvent(String line) {
+        line = line.trim();
+        if (line.isEmpty()) {
+            return null;
+        }
+        String[] parts = line.split(";", 3);
+        if (parts.length < 3) {
+            return null;
+        }
+        return new Event(parts[0].trim(), parts[1].trim(), parts[2].trim());
+    }
+}
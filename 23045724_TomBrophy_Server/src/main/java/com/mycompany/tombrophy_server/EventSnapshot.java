@@ -0,0 +1,342 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.function.*;
+import java.util.zip.*;
+
+/**
+ * Reads and writes full snapshots of the board, either as events.txt lines or
+ * in a binary format that loads without parsing anything.
+ *
+ * The binary file is a header, then one block per day (its epoch day and how
+ * many events it has), then per event its minute of the day and the indexes of
+ * its date, time and description text. All the text lives once in a string
+ * dictionary at the end of the file, so a description shared by a thousand
+ * events is decoded once. The header is written last, when the counts and the
+ * dictionary offset are known, so saving is a single pass over the store.
+ * Loading reads the whole file into one heap buffer and decodes from there.
+ * It isn't memory-mapped: a mapping outlives the channel until it is garbage
+ * collected, and on Windows the next snapshot can't be moved over a file that
+ * is still mapped.
+ *
+ *   int magic, int version, long dictionaryOffset, int days, int events, int strings
+ *   days:       int epochDay, int count, count x (int minuteOfDay, int date, int time, int description)
+ *   dictionary: strings x (int length, UTF-8 bytes)
+ *
+ * Both formats go to a temp file first and are moved into place, so a crash
+ * mid-save leaves the previous snapshot intact. The archive keeps each month
+ * in the binary format gzipped (writeCompressed/readCompressed).
+ *
+ * @author tombr
+ */
+public final class EventSnapshot {
+    public enum Format {
+        // events.txt, one "date; time; description" line per event
+        TEXT,
+        // eventboard.snapshotFile, the binary format
+        BINARY;
+
+        public static Format parse(String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return TEXT;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown snapshot format: " + value
+                        + ". Use one of " + Arrays.toString(values()));
+            }
+        }
+    }
+
+    // "EVB1"
+    private static final int MAGIC = 0x45564231;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4 + 4;
+    private static final int EVENT_BYTES = 4 * 4;
+    private static final int WRITE_BUFFER_BYTES = 1 << 16;
+
+    private EventSnapshot() {
+    }
+
+    // Loads whichever format the file is in, returns how many events it held
+    public static int read(Path path, Consumer<Event> sink) throws IOException {
+        return isBinary(path) ? readBinary(path, sink) : readText(path, sink);
+    }
+
+    public static boolean isBinary(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // keep reading, a short file just isn't binary
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    public static int readText(Path path, Consumer<Event> sink) throws IOException {
+        int count = 0;
+        try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                Event e = EventJournal.parseEvent(line);
+                if (e != null) {
+                    sink.accept(e);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public static void writeText(Path target, Collection<NavigableSet<Event>> days) throws IOException {
+        Path temp = tempFor(target);
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(temp, StandardCharsets.UTF_8))) {
+            for (NavigableSet<Event> events : days) {
+                for (Event e : events) {
+                    writer.printf("%s; %s; %s%n", e.date, e.time, e.description);
+                }
+            }
+            if (writer.checkError()) {
+                throw new IOException("write to " + temp + " failed");
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static int readBinary(Path path, Consumer<Event> sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too big to load (" + size + " bytes)");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException(path + " ended early");
+                }
+            }
+            return readBinary(buffer.flip(), path, sink);
+        }
+    }
+
+    private static int readBinary(ByteBuffer buffer, Path path, Consumer<Event> sink) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(path + " is not a binary snapshot");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException(path + " has snapshot version " + version + ", expected " + VERSION);
+            }
+            long dictionaryOffset = buffer.getLong();
+            int dayCount = buffer.getInt();
+            int eventCount = buffer.getInt();
+            int stringCount = buffer.getInt();
+
+            String[] strings = readDictionary(buffer, (int) dictionaryOffset, stringCount);
+
+            buffer.position(HEADER_BYTES);
+            int read = 0;
+            for (int d = 0; d < dayCount; d++) {
+                LocalDate day = LocalDate.ofEpochDay(buffer.getInt());
+                int count = buffer.getInt();
+                for (int i = 0; i < count; i++) {
+                    int minuteOfDay = buffer.getInt();
+                    String date = strings[buffer.getInt()];
+                    String time = strings[buffer.getInt()];
+                    String description = strings[buffer.getInt()];
+                    sink.accept(new Event(date, time, description, day, minuteOfDay));
+                }
+                read += count;
+            }
+            if (read != eventCount) {
+                throw new IOException(path + " says it has " + eventCount + " events but holds " + read);
+            }
+            return read;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                | NegativeArraySizeException | DateTimeException e) {
+            throw new IOException(path + " is corrupt: " + e, e);
+        }
+    }
+
+    // A binary snapshot that was gzipped by writeCompressed. It is inflated into memory
+    // whole, so this is for small files such as a month of the archive.
+    public static int readCompressed(Path path, Consumer<Event> sink) throws IOException {
+        byte[] bytes;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path), WRITE_BUFFER_BYTES)) {
+            bytes = in.readAllBytes();
+        }
+        return readBinary(ByteBuffer.wrap(bytes), path, sink);
+    }
+
+    private static String[] readDictionary(ByteBuffer buffer, int offset, int count) {
+        String[] strings = new String[count];
+        byte[] scratch = new byte[256];
+        buffer.position(offset);
+        for (int i = 0; i < count; i++) {
+            int length = buffer.getInt();
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            buffer.get(scratch, 0, length);
+            strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    public static void writeBinary(Path target, Collection<NavigableSet<Event>> days) throws IOException {
+        Path temp = tempFor(target);
+        Map<String, Integer> index = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int dayCount = 0;
+        int eventCount = 0;
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+            // Zeros for now, the header is filled in at the end
+            buffer.position(HEADER_BYTES);
+
+            for (NavigableSet<Event> set : days) {
+                // Copy the day first so the count we write matches the events that follow,
+                // whatever writers do to the live set meanwhile
+                Event[] events = set.toArray(new Event[0]);
+                if (events.length == 0) {
+                    continue;
+                }
+                ensureRoom(channel, buffer, 8);
+                buffer.putInt(events[0].epochDay);
+                buffer.putInt(events.length);
+                for (Event e : events) {
+                    ensureRoom(channel, buffer, EVENT_BYTES);
+                    buffer.putInt(e.minuteOfDay);
+                    buffer.putInt(indexOf(e.date, index, strings));
+                    buffer.putInt(indexOf(e.time, index, strings));
+                    buffer.putInt(indexOf(e.description, index, strings));
+                }
+                dayCount++;
+                eventCount += events.length;
+            }
+
+            long dictionaryOffset = channel.position() + buffer.position();
+            for (String s : strings) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                ensureRoom(channel, buffer, 4);
+                buffer.putInt(bytes.length);
+                int written = 0;
+                while (written < bytes.length) {
+                    ensureRoom(channel, buffer, 1);
+                    int n = Math.min(buffer.remaining(), bytes.length - written);
+                    buffer.put(bytes, written, n);
+                    written += n;
+                }
+            }
+            flush(channel, buffer);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(dictionaryOffset)
+                    .putInt(dayCount).putInt(eventCount).putInt(strings.size());
+            header.flip();
+            long position = 0;
+            while (header.hasRemaining()) {
+                position += channel.write(header, position);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // writeBinary, then gzipped. The text repeats a lot from event to event, so this
+    // is a fraction of the size, at the cost of not being able to map it.
+    public static void writeCompressed(Path target, Collection<NavigableSet<Event>> days) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        Path raw = absolute.resolveSibling(absolute.getFileName() + ".raw");
+        Path temp = tempFor(target);
+        try {
+            writeBinary(raw, days);
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp), WRITE_BUFFER_BYTES)) {
+                Files.copy(raw, out);
+            }
+        } finally {
+            Files.deleteIfExists(raw);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int indexOf(String s, Map<String, Integer> index, List<String> strings) {
+        Integer i = index.get(s);
+        if (i == null) {
+            i = strings.size();
+            index.put(s, i);
+            strings.add(s);
+        }
+        return i;
+    }
+
+    private static void ensureRoom(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static Path tempFor(Path target) {
+        Path absolute = target.toAbsolutePath();
+        return absolute.resolveSibling(absolute.getFileName() + ".tmp");
+    }
+
+    // Converts between the two formats and says how long each side took, e.g.
+    //   java -cp target/classes com.mycompany.tombrophy_server.EventSnapshot events.txt events.snap
+    // The output format follows the input: text in gives binary out and the other way round.
+    // With the server stopped, this is one way to switch eventboard.snapshotFormat: the converted
+    // file is the newer one, so the next start loads it and replays the journal on top.
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: EventSnapshot <from> <to>");
+            System.exit(2);
+        }
+        Path from = Paths.get(args[0]);
+        Path to = Paths.get(args[1]);
+        boolean binaryIn = isBinary(from);
+
+        // Sorted and de-duplicated like the live store, without an object per event
+        CompactEventStore.Builder builder = new CompactEventStore.Builder();
+        long start = System.nanoTime();
+        int read = read(from, builder::add);
+        CompactEventStore store = builder.build();
+        long loaded = System.nanoTime();
+        if (binaryIn) {
+            writeText(to, store.allDays());
+        } else {
+            writeBinary(to, store.allDays());
+        }
+        long saved = System.nanoTime();
+
+        System.out.printf("Read %d events (%d kept) from %s %s in %d ms%n",
+                read, store.size(), binaryIn ? "binary" : "text", from, (loaded - start) / 1_000_000);
+        System.out.printf("Wrote %s %s (%d bytes) in %d ms%n",
+                binaryIn ? "text" : "binary", to, Files.size(to), (saved - loaded) / 1_000_000);
+
+        // Time loading the new file too, so both formats get a startup number
+        long reloadStart = System.nanoTime();
+        read(to, new CompactEventStore.Builder()::add);
+        System.out.printf("Loading %s takes %d ms%n", to, (System.nanoTime() - reloadStart) / 1_000_000);
+    }
+}
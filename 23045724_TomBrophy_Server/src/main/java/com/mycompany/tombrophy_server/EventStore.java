@@ -0,0 +1,163 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * The event board. Days are keyed by their parsed LocalDate, and each day is a
+ * concurrent sorted set ordered by time of day. Duplicates (same time and
+ * description, ignoring case) compare equal, so add, remove and the duplicate
+ * check are all O(log n) and nothing is ever re-sorted.
+ *
+ * Writers lock only the stripe their day hashes to, so adds on different days
+ * never wait for each other. Readers take no locks at all: they read the
+ * skip-list sets directly, and a set that is dropped because its last event was
+ * removed simply reads as empty.
+ *
+ * With a SearchIndex, every add and remove updates it under the same lock.
+ *
+ * @author tombr
+ */
+public class EventStore {
+    private static final int STRIPES = 256;
+
+    private final ConcurrentSkipListMap<LocalDate, NavigableSet<Event>> days = new ConcurrentSkipListMap<>();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    // Bumped after every change to a day in the stripe, see version()
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+    // Null when search is turned off
+    private final SearchIndex index;
+
+    public EventStore() {
+        this(null);
+    }
+
+    public EventStore(SearchIndex index) {
+        this.index = index;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    // The writer lock for a day. Callers can hold it around add/remove to keep
+    // something else (e.g. the journal) in the same order as the store.
+    public Lock lockFor(LocalDate day) {
+        return stripes[stripe(day == null ? 0 : day.toEpochDay())];
+    }
+
+    // The writer lock for the event's day
+    public Lock lockFor(Event e) {
+        return stripes[stripe(e.hasDay() ? e.epochDay : 0)];
+    }
+
+    private static int stripe(long epochDay) {
+        return (int) Math.floorMod(epochDay, (long) STRIPES);
+    }
+
+    // Changes whenever an event is added to or removed from the day (or another day in
+    // its stripe). It is bumped after the change, so something built from the day after
+    // reading the version is at least as new as that version.
+    public long version(LocalDate day) {
+        return versions.get(stripe(day.toEpochDay()));
+    }
+
+    // Returns false if the event is a duplicate or its date isn't a real day
+    public boolean add(Event e) {
+        if (!e.hasDay()) {
+            return false;
+        }
+        Lock lock = lockFor(e);
+        lock.lock();
+        try {
+            if (!days.computeIfAbsent(e.day(), k -> new ConcurrentSkipListSet<>(Event.BY_TIME)).add(e)) {
+                return false;
+            }
+            if (index != null) {
+                index.add(e);
+            }
+            versions.incrementAndGet(stripe(e.epochDay));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Removes the stored event matching the probe and returns it, or null if there was no match.
+    // A day left empty is dropped; that is safe because adds take the same lock.
+    public Event remove(Event probe) {
+        if (!probe.hasDay()) {
+            return null;
+        }
+        LocalDate day = probe.day();
+        Lock lock = lockFor(probe);
+        lock.lock();
+        try {
+            NavigableSet<Event> events = days.get(day);
+            if (events == null) {
+                return null;
+            }
+            Event stored = events.ceiling(probe);
+            if (stored == null || Event.BY_TIME.compare(stored, probe) != 0 || !events.remove(stored)) {
+                return null;
+            }
+            if (events.isEmpty()) {
+                days.remove(day, events);
+            }
+            if (index != null) {
+                index.remove(stored);
+            }
+            versions.incrementAndGet(stripe(probe.epochDay));
+            return stored;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The sorted events on a day, or null if nothing was ever added to it
+    public NavigableSet<Event> eventsOn(LocalDate day) {
+        return day == null ? null : days.get(day);
+    }
+
+    public NavigableSet<Event> eventsOn(String date) {
+        return eventsOn(EventDates.parseDate(date));
+    }
+
+    // The days from one date to another, both included, in date order
+    public Collection<NavigableSet<Event>> range(LocalDate from, LocalDate to) {
+        return days.subMap(from, true, to, true).values();
+    }
+
+    // Every day from this one on, in date order
+    public Collection<NavigableSet<Event>> from(LocalDate day) {
+        return days.tailMap(day, true).values();
+    }
+
+    // Every day before this one, in date order
+    public Collection<NavigableSet<Event>> before(LocalDate day) {
+        return days.headMap(day, false).values();
+    }
+
+    public SearchIndex index() {
+        return index;
+    }
+
+    // Every day in date order, used for snapshots
+    public Collection<NavigableSet<Event>> allDays() {
+        return days.values();
+    }
+
+    public int size() {
+        int total = 0;
+        for (NavigableSet<Event> events : days.values()) {
+            total += events.size();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.util.*;
+
+/**
+ * How the server runs each accepted client connection.
+ *
+ * @author tombr
+ */
+public enum ExecutionMode {
+    // One new platform thread per connection (the original behaviour)
+    THREAD,
+    // One virtual thread per connection
+    VIRTUAL,
+    // A fixed pool of platform threads, connections are turned away when it is full
+    POOLED,
+    // A single selector thread owns every socket and hands complete lines to a small worker pool
+    NIO;
+
+    public static ExecutionMode parse(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return THREAD;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown execution mode: " + value
+                    + ". Use one of " + Arrays.toString(values()));
+        }
+    }
+}
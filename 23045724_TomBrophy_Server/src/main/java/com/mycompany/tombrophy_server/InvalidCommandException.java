@@ -1,15 +1,31 @@
-/*
- * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
- * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
- */
-package com.mycompany.tombrophy_server;
-
-/**
- *
- * @author tombr
- */
-public class InvalidCommandException extends Exception {
-    public InvalidCommandException(String message) {
-        super(message);
-    }
-}
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+/**
+ *
+ * @author tombr
+ */
+public class InvalidCommandException extends Exception {
+    // What was wrong with the command, so errors can be counted by kind
+    public enum Kind {
+        USAGE, BAD_DATE, BAD_TIME, UNKNOWN_COMMAND, EMPTY, READ_ONLY, THROTTLED, NOT_SAVED
+    }
+
+    private final Kind kind;
+
+    public InvalidCommandException(String message) {
+        this(Kind.USAGE, message);
+    }
+
+    public InvalidCommandException(Kind kind, String message) {
+        super(message);
+        this.kind = kind;
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+}
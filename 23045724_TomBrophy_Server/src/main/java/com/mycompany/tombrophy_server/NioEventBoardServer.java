@@ -0,0 +1,579 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Non-blocking front end for the EventBoard protocol. One selector thread owns
+ * every socket and cuts the input into lines, complete lines are run on a small
+ * worker pool. An idle client costs a channel and a key, not a thread. After
+ * protocol; binary the input is cut into WireProtocol frames instead, and the
+ * replies go out as frames.
+ *
+ * At eventboard.maxConnections the selector stops accepting, leaving new
+ * clients in the listen backlog, and starts again as connections close. With
+ * eventboard.idleSeconds set it looks for idle connections once a second.
+ *
+ * @author tombr
+ */
+public class NioEventBoardServer {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // Longest line we will hold for one client before giving up on it
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    // Stop reading from a client that has this many lines waiting for a worker
+    private static final int MAX_PENDING_LINES = 1024;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final TomBrophy_Server server;
+    private final ServerConfig config;
+    private final ConnectionStats connectionStats;
+    private final ExecutorService workers;
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final byte[] scratch = new byte[READ_BUFFER_SIZE];
+    private Selector selector;
+    // Selector thread only
+    private SelectionKey acceptKey;
+    private boolean acceptPaused;
+    private long lastIdleCheck = System.nanoTime();
+
+    public NioEventBoardServer(TomBrophy_Server server, ServerConfig config, ConnectionStats connectionStats) {
+        this.server = server;
+        this.config = config;
+        this.connectionStats = connectionStats;
+        this.workers = Executors.newFixedThreadPool(config.nioWorkers,
+                Thread.ofPlatform().name("nio-worker-", 0).factory());
+    }
+
+    public void run() throws IOException {
+        try (Selector sel = Selector.open();
+             ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            selector = sel;
+            serverChannel.configureBlocking(false);
+            serverChannel.bind(new InetSocketAddress(config.port), config.acceptBacklog);
+            acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+            while (serverChannel.isOpen()) {
+                selector.select(config.idleSeconds > 0 ? 1000 : 0);
+                runSelectorTasks();
+                if (config.idleSeconds > 0) {
+                    closeIdleConnections();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isAcceptable()) {
+                            accept(serverChannel);
+                        } else {
+                            Connection conn = (Connection) key.attachment();
+                            if (key.isReadable()) {
+                                conn.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                conn.flushFromSelector();
+                            }
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        if (key.attachment() instanceof Connection conn) {
+                            conn.close();
+                        }
+                    }
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void runSelectorTasks() {
+        Runnable task;
+        while ((task = selectorTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    // Interest ops are only changed on the selector thread, other threads queue a task.
+    private void onSelectorThread(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel;
+        while (!atConnectionCap() && (channel = serverChannel.accept()) != null) {
+            connectionStats.connectionAccepted();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection conn = new Connection(channel);
+            conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+            connectionStats.handlerStarted();
+            ServerLog.info("Client connected: " + channel.getRemoteAddress());
+
+            Socket socket = channel.socket();
+            String serverAddress = socket.getLocalAddress().getHostAddress() + ":" + socket.getLocalPort();
+            String clientAddress = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+            conn.send(server.welcomeMessage(serverAddress, clientAddress));
+        }
+        if (atConnectionCap() && !acceptPaused) {
+            acceptPaused = true;
+            acceptKey.interestOps(0);
+            connectionStats.connectionsWaited();
+        }
+    }
+
+    private boolean atConnectionCap() {
+        return config.maxConnections > 0 && connectionStats.activeConnections() >= config.maxConnections;
+    }
+
+    // Selector thread, after a connection has closed
+    private void resumeAccepting() {
+        if (acceptPaused && !atConnectionCap() && acceptKey.isValid()) {
+            acceptPaused = false;
+            acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
+    }
+
+    private void closeIdleConnections() {
+        long now = System.nanoTime();
+        if (now - lastIdleCheck < 1_000_000_000L) {
+            return;
+        }
+        lastIdleCheck = now;
+        long idleNanos = TimeUnit.SECONDS.toNanos(config.idleSeconds);
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof Connection conn && now - conn.lastRead >= idleNanos) {
+                conn.closeIfIdle();
+            }
+        }
+    }
+
+    private final class Connection implements SubscriptionHub.Subscriber {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        // Only the worker draining this connection touches these
+        private final Command command = new Command();
+        private String batchHeader;
+        private List<String> batch;
+        private int batchRemaining;
+        private final WireProtocol.FrameBuilder frame = new WireProtocol.FrameBuilder();
+        // When the client last sent anything, selector thread only
+        private long lastRead = System.nanoTime();
+
+        // Set by the worker, under this, as it queues the PROTOCOL reply; the selector
+        // thread reads frames from then on
+        private volatile boolean binary;
+
+        // Bytes of a line that has not seen its newline yet (or of a frame not all here yet), selector thread only
+        private byte[] partial;
+        private int partialLength;
+
+        // Everything below is guarded by this
+        private final ArrayDeque<String> pendingLines = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+        private boolean draining;
+        private boolean readPaused;
+        private boolean writeRegistered;
+        private boolean closeAfterFlush;
+        private boolean closed;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            command.subscriber = this;
+            command.binaryCapable = true;
+            command.client = channel.socket().getInetAddress();
+        }
+
+        // Pushes share the outbound queue with replies; too much in it already means the
+        // client isn't reading
+        @Override
+        public boolean push(SubscriptionHub.Push push) {
+            synchronized (this) {
+                if (closed) {
+                    return true;
+                }
+                if (outbound.size() >= config.pushQueue) {
+                    return false;
+                }
+                // Chosen under the lock the switch to frames is made under, so no push
+                // goes out as text after the PROTOCOL reply
+                outbound.add(binary ? ByteBuffer.wrap(push.frame) : encodeLine(push.line));
+            }
+            flushOrClose();
+            return true;
+        }
+
+        @Override
+        public void evict() {
+            ServerLog.info("Dropped slow subscriber " + channel.socket().getRemoteSocketAddress()
+                    + " (" + config.pushQueue + " replies and pushes waiting)");
+            closeLater();
+        }
+
+        // Selector thread: read what is there and split it on '\n'
+        void read() throws IOException {
+            readBuffer.clear();
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                close();
+                return;
+            }
+            if (n == 0) {
+                return;
+            }
+            lastRead = System.nanoTime();
+            readBuffer.flip();
+            readBuffer.get(scratch, 0, n);
+            if (binary) {
+                readFrames(n);
+                return;
+            }
+
+            List<String> lines = null;
+            int start = 0;
+            for (int i = 0; i < n; i++) {
+                if (scratch[i] != '\n') {
+                    continue;
+                }
+                String line = decodeLine(scratch, start, i);
+                if (line == null) {
+                    // Only the first line of a read can carry on from an earlier one, so
+                    // nothing has been cut out ahead of it
+                    tooLong();
+                    return;
+                }
+                if (lines == null) {
+                    lines = new ArrayList<>();
+                }
+                lines.add(line);
+                start = i + 1;
+            }
+            if (start < n && !keepPartial(scratch, start, n - start, MAX_LINE_LENGTH)) {
+                tooLong();
+                return;
+            }
+            if (lines != null) {
+                dispatch(lines);
+            }
+        }
+
+        // Adds what was read to what is left of the last read and dispatches every whole frame
+        private void readFrames(int n) throws IOException {
+            if (!keepPartial(scratch, 0, n, MAX_LINE_LENGTH + READ_BUFFER_SIZE)) {
+                tooLong();
+                return;
+            }
+            List<String> lines = null;
+            int pos = 0;
+            while (true) {
+                int length = 0;
+                int at = pos;
+                boolean haveLength = false;
+                for (int shift = 0; at < partialLength && shift <= 28; shift += 7) {
+                    byte b = partial[at++];
+                    length |= (b & 0x7f) << shift;
+                    if ((b & 0x80) == 0) {
+                        haveLength = true;
+                        break;
+                    }
+                }
+                if (!haveLength) {
+                    if (at - pos > 4) {
+                        tooLong();
+                        return;
+                    }
+                    break;
+                }
+                if (length < 0 || length > MAX_LINE_LENGTH) {
+                    tooLong();
+                    return;
+                }
+                if (partialLength - at < length) {
+                    break;
+                }
+                if (lines == null) {
+                    lines = new ArrayList<>();
+                }
+                lines.add(new String(partial, at, length, StandardCharsets.UTF_8));
+                pos = at + length;
+            }
+            System.arraycopy(partial, pos, partial, 0, partialLength - pos);
+            partialLength -= pos;
+            if (lines != null) {
+                dispatch(lines);
+            }
+        }
+
+        // The client sent more than we will hold for one request: say so and hang up
+        private void tooLong() {
+            closeWith(binary ? "ERROR: Frame too long." : "ERROR: Line too long.");
+        }
+
+        // Selector thread: nothing has come in for eventboard.idleSeconds. A connection with
+        // a command still running, or subscribed to a day, isn't idle.
+        void closeIfIdle() {
+            synchronized (this) {
+                if (draining || closed || closeAfterFlush) {
+                    return;
+                }
+            }
+            if (server.subscriptions().isSubscribed(this)) {
+                return;
+            }
+            connectionStats.idleConnectionClosed();
+            closeWith("ERROR: Nothing received for " + config.idleSeconds + " seconds, closing the connection");
+        }
+
+        private void closeWith(String error) {
+            if (binary) {
+                sendBytes(new WireProtocol.FrameBuilder().start("").text(error).toByteBuffer());
+            } else {
+                send(error);
+            }
+            synchronized (this) {
+                closeAfterFlush = true;
+            }
+            flushOrClose();
+        }
+
+        // Null if the line, with what an earlier read left of it, is over MAX_LINE_LENGTH
+        private String decodeLine(byte[] bytes, int from, int to) {
+            String line;
+            if (partialLength == 0) {
+                line = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+            } else {
+                if (!keepPartial(bytes, from, to - from, MAX_LINE_LENGTH)) {
+                    return null;
+                }
+                line = new String(partial, 0, partialLength, StandardCharsets.UTF_8);
+                partialLength = 0;
+                partial = null;
+            }
+            // Same as BufferedReader.readLine(): "\r\n" ends a line too
+            if (line.endsWith("\r")) {
+                line = line.substring(0, line.length() - 1);
+            }
+            return line;
+        }
+
+        private boolean keepPartial(byte[] bytes, int from, int length, int limit) {
+            if (partialLength + length > limit) {
+                return false;
+            }
+            if (partial == null) {
+                partial = new byte[Math.max(256, length)];
+            } else if (partial.length < partialLength + length) {
+                partial = Arrays.copyOf(partial, Math.max(partial.length * 2, partialLength + length));
+            }
+            System.arraycopy(bytes, from, partial, partialLength, length);
+            partialLength += length;
+            return true;
+        }
+
+        private void dispatch(List<String> lines) {
+            boolean startWorker;
+            synchronized (this) {
+                if (closed || closeAfterFlush) {
+                    return;
+                }
+                pendingLines.addAll(lines);
+                if (pendingLines.size() >= MAX_PENDING_LINES && !readPaused) {
+                    readPaused = true;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                }
+                startWorker = !draining;
+                draining = true;
+            }
+            if (startWorker) {
+                workers.execute(this::drain);
+            }
+        }
+
+        // Worker thread: lines of one client are answered in order, one worker at a time
+        private void drain() {
+            while (true) {
+                String line;
+                synchronized (this) {
+                    line = pendingLines.poll();
+                    if (line == null || closed) {
+                        draining = false;
+                        if (readPaused && !closed) {
+                            readPaused = false;
+                            onSelectorThread(this::resumeReading);
+                        }
+                        return;
+                    }
+                }
+                String response;
+                if (batchRemaining > 0) {
+                    batch.add(line);
+                    if (--batchRemaining > 0) {
+                        continue;
+                    }
+                    response = server.applyBatch(batchHeader, batch, command);
+                    batchHeader = null;
+                    batch = null;
+                    if (binary) {
+                        frame.start(response).text(response.substring(TomBrophy_Server.tagLength(response)));
+                    }
+                } else {
+                    int batchLines = TomBrophy_Server.batchLength(line, command);
+                    if (batchLines > 0) {
+                        // The next batchLines lines belong to this batch, reply once they are all in
+                        batchHeader = line;
+                        batch = new ArrayList<>(batchLines);
+                        batchRemaining = batchLines;
+                        continue;
+                    }
+                    response = binary ? server.handleFrame(line, command, frame) : server.handleLine(line, command);
+                }
+                if (binary) {
+                    sendBytes(frame.toByteBuffer());
+                } else if (command.binary) {
+                    // The PROTOCOL reply, the last thing this connection sends as text
+                    synchronized (this) {
+                        if (!closed) {
+                            outbound.add(encodeLine(response));
+                        }
+                        binary = true;
+                    }
+                    flushOrClose();
+                } else {
+                    send(response);
+                }
+                if (TomBrophy_Server.isTerminate(response)) {
+                    synchronized (this) {
+                        pendingLines.clear();
+                        closeAfterFlush = true;
+                    }
+                    flushOrClose();
+                }
+            }
+        }
+
+        private void resumeReading() {
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        void send(String line) {
+            sendBytes(encodeLine(line));
+        }
+
+        private ByteBuffer encodeLine(String line) {
+            return StandardCharsets.UTF_8.encode(CharBuffer.wrap(line + LINE_SEPARATOR));
+        }
+
+        private void sendBytes(ByteBuffer bytes) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                outbound.add(bytes);
+            }
+            flushOrClose();
+        }
+
+        // Any thread: write straight away and only fall back to OP_WRITE when the socket is full
+        private void flushOrClose() {
+            boolean needWrite;
+            boolean done;
+            synchronized (this) {
+                if (closed || writeRegistered) {
+                    return;
+                }
+                try {
+                    writeOutbound();
+                } catch (IOException e) {
+                    closeLater();
+                    return;
+                }
+                needWrite = !outbound.isEmpty();
+                done = !needWrite && closeAfterFlush;
+                if (needWrite) {
+                    writeRegistered = true;
+                }
+            }
+            if (needWrite) {
+                onSelectorThread(() -> {
+                    if (key.isValid()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                });
+            } else if (done) {
+                closeLater();
+            }
+        }
+
+        // Selector thread: the socket has room again
+        void flushFromSelector() throws IOException {
+            boolean done;
+            synchronized (this) {
+                writeOutbound();
+                if (!outbound.isEmpty()) {
+                    return;
+                }
+                writeRegistered = false;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                done = closeAfterFlush;
+            }
+            if (done) {
+                close();
+            }
+        }
+
+        private void writeOutbound() throws IOException {
+            while (!outbound.isEmpty()) {
+                ByteBuffer head = outbound.peek();
+                channel.write(head);
+                if (head.hasRemaining()) {
+                    return;
+                }
+                outbound.poll();
+            }
+        }
+
+        private void closeLater() {
+            onSelectorThread(this::close);
+        }
+
+        void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                pendingLines.clear();
+                outbound.clear();
+            }
+            connectionStats.handlerFinished();
+            resumeAccepting();
+            server.subscriptions().unsubscribeAll(this);
+            String remote = String.valueOf(channel.socket().getRemoteSocketAddress());
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            ServerLog.info("Client disconnected: " + remote);
+        }
+    }
+}
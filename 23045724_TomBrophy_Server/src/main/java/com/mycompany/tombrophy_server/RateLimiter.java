@@ -0,0 +1,149 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.net.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Token buckets per client address, one for writes (add, remove, batch,
+ * bulkload) and one for reads (everything else but stop), filled at
+ * eventboard.writesPerSecond and eventboard.readsPerSecond and holding one
+ * second's worth. Every connection from an address draws on the same buckets,
+ * so opening more connections doesn't buy a client more requests. A request
+ * that finds its bucket empty is refused with a THROTTLED error; nothing waits.
+ * Requests are charged in full, a batch or bulkload for every line, and may
+ * leave the bucket in debt, so big requests are paid for by the wait after.
+ *
+ * @author tombr
+ */
+final class RateLimiter {
+    enum Kind {
+        READ, WRITE
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+    // Addresses idle this long are forgotten; their buckets would be full again anyway
+    private static final long FORGET_AFTER_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private final int[] perSecond = new int[KINDS.length];
+    private final ConcurrentHashMap<InetAddress, Client> clients = new ConcurrentHashMap<>();
+    private final LongAdder[] throttled = new LongAdder[KINDS.length];
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+    // Both buckets of one address, guarded by this. A new address starts with them full.
+    private final class Client {
+        final double[] tokens = new double[KINDS.length];
+        final long[] filledAt = new long[KINDS.length];
+        long lastUsed;
+
+        Client(long now) {
+            for (int k = 0; k < KINDS.length; k++) {
+                tokens[k] = perSecond[k];
+                filledAt[k] = now;
+            }
+            lastUsed = now;
+        }
+    }
+
+    RateLimiter(ServerConfig config) {
+        perSecond[Kind.READ.ordinal()] = config.readsPerSecond;
+        perSecond[Kind.WRITE.ordinal()] = config.writesPerSecond;
+        for (int i = 0; i < KINDS.length; i++) {
+            throttled[i] = new LongAdder();
+        }
+    }
+
+    boolean enabled() {
+        return perSecond[Kind.READ.ordinal()] > 0 || perSecond[Kind.WRITE.ordinal()] > 0;
+    }
+
+    // Which bucket an action draws on, null for one that is never limited
+    static Kind kindOf(Command.Action action) {
+        switch (action) {
+            case ADD:
+            case REMOVE:
+            case BATCH:
+            case BULKLOAD:
+                return Kind.WRITE;
+            case STOP:
+                return null;
+            default:
+                return Kind.READ;
+        }
+    }
+
+    // Lets the request through if the client's bucket has anything in it, and takes the
+    // whole cost, which can leave the bucket owing: a 10,000 line batch at 100 writes a second
+    // is applied, and the client's next write waits the 100 seconds it used up. Throws
+    // THROTTLED while the bucket is empty or owing. A null client (no connection) is never limited.
+    void acquire(InetAddress client, Command.Action action, int cost) throws InvalidCommandException {
+        Kind kind = kindOf(action);
+        if (client == null || kind == null || perSecond[kind.ordinal()] <= 0) {
+            return;
+        }
+        int rate = perSecond[kind.ordinal()];
+        long now = System.nanoTime();
+        sweepIfDue(now);
+
+        Client c = clients.computeIfAbsent(client, a -> new Client(now));
+        double owed;
+        synchronized (c) {
+            int k = refill(c, kind, now);
+            if (c.tokens[k] > 0) {
+                c.tokens[k] -= cost;
+                return;
+            }
+            owed = -c.tokens[k];
+        }
+        throttled[kind.ordinal()].increment();
+        long waitMillis = Math.max(1, (long) Math.ceil(owed * 1000 / rate));
+        throw new InvalidCommandException(InvalidCommandException.Kind.THROTTLED, "Too many "
+                + (kind == Kind.WRITE ? "writes" : "reads") + " from " + client.getHostAddress()
+                + ", the limit is " + rate + " a second. Try again in " + waitMillis + " ms");
+    }
+
+    // Takes cost more tokens for work already let in, without refusing anything: the lines
+    // of a bulkload as they are read
+    void charge(InetAddress client, Command.Action action, int cost) {
+        Kind kind = kindOf(action);
+        if (client == null || kind == null || perSecond[kind.ordinal()] <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        Client c = clients.computeIfAbsent(client, a -> new Client(now));
+        synchronized (c) {
+            c.tokens[refill(c, kind, now)] -= cost;
+        }
+    }
+
+    // Adds what the bucket earned since it was last filled, up to one second's worth.
+    // Caller holds c. Returns the bucket's index.
+    private int refill(Client c, Kind kind, long now) {
+        int k = kind.ordinal();
+        c.tokens[k] = Math.min(perSecond[k], c.tokens[k] + Math.max(0, now - c.filledAt[k]) / 1e9 * perSecond[k]);
+        c.filledAt[k] = now;
+        c.lastUsed = now;
+        return k;
+    }
+
+    long throttled(Kind kind) {
+        return throttled[kind.ordinal()].sum();
+    }
+
+    // At most once a minute, by whichever request gets here first
+    private void sweepIfDue(long now) {
+        long last = lastSweep.get();
+        if (now - last < FORGET_AFTER_NANOS || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        clients.values().removeIf(c -> {
+            synchronized (c) {
+                return now - c.lastUsed > FORGET_AFTER_NANOS;
+            }
+        });
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Keeps this server's board a copy of the leader's (see ReplicationLeader for
+ * the lines on the wire). Changes are applied through the server's own journal,
+ * so a follower restarts from its own files like any server, then gets a fresh
+ * snapshot from the leader. If the leader goes away it keeps serving what it
+ * has and tries again every second.
+ *
+ * @author tombr
+ */
+public class ReplicationFollower {
+    private static final long RETRY_MILLIS = 1000;
+
+    private final TomBrophy_Server server;
+    private final ServerConfig config;
+    private final ServerMetrics metrics;
+
+    // Follower thread only
+    private String runId = "-";
+    private long applied;
+    private long leaderSeq;
+    private long appliedWrittenAt;
+    // Our own journal's seq for the last change applied, waited on before each ack
+    private long localSeq;
+
+    public ReplicationFollower(TomBrophy_Server server, ServerConfig config, ServerMetrics metrics) {
+        this.server = server;
+        this.config = config;
+        this.metrics = metrics;
+    }
+
+    public void start() {
+        Thread follower = new Thread(this::run, "replication-follower");
+        follower.setDaemon(true);
+        follower.start();
+    }
+
+    private void run() {
+        while (true) {
+            try (Socket socket = ShardRouter.connect(config.leader)) {
+                socket.setTcpNoDelay(true);
+                ServerLog.info("Following leader " + config.leader);
+                follow(socket);
+            } catch (IOException | RuntimeException e) {
+                ServerLog.error("Lost leader " + config.leader + ": " + e.getMessage());
+            }
+            metrics.replicationLag("follower (disconnected)", leaderSeq - applied, 0);
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void follow(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), false);
+        out.println("FOLLOW " + runId + " " + (applied + 1));
+        out.flush();
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith("R ")) {
+                int seqEnd = line.indexOf(' ', 2);
+                int timeEnd = line.indexOf(' ', seqEnd + 1);
+                long seq = Long.parseLong(line.substring(2, seqEnd));
+                Event e = EventJournal.parseEvent(line.substring(timeEnd + 2));
+                if (e != null) {
+                    localSeq = Math.max(localSeq, server.applyReplicated(line.charAt(timeEnd + 1), e));
+                }
+                applied = seq;
+                appliedWrittenAt = Long.parseLong(line.substring(seqEnd + 1, timeEnd));
+                leaderSeq = Math.max(leaderSeq, seq);
+            } else if (line.startsWith("H ")) {
+                leaderSeq = Long.parseLong(line.substring(2).trim());
+            } else if (line.startsWith("SNAPSHOT ")) {
+                loadSnapshot(line, in);
+            } else {
+                throw new IOException("Unexpected line from leader: " + line);
+            }
+
+            // Ack once the lines that have already arrived are applied and in our journal
+            if (!in.ready()) {
+                server.awaitJournaled(localSeq);
+                out.println("ACK " + applied);
+                out.flush();
+                long lagMillis = applied < leaderSeq ? System.currentTimeMillis() - appliedWrittenAt : 0;
+                metrics.replicationLag("follower of " + config.leader, leaderSeq - applied, lagMillis);
+            }
+        }
+        throw new EOFException("leader closed the connection");
+    }
+
+    // "SNAPSHOT <run id> <seq> <n>" and its n events replace the whole board
+    private void loadSnapshot(String header, BufferedReader in) throws IOException {
+        String[] parts = header.split(" ");
+        if (parts.length != 4) {
+            throw new IOException("Bad snapshot header: " + header);
+        }
+        long seq = Long.parseLong(parts[2]);
+        int count = Integer.parseInt(parts[3]);
+        List<Event> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String line = in.readLine();
+            if (line == null) {
+                throw new EOFException("leader closed the connection during a snapshot");
+            }
+            Event e = EventJournal.parseEvent(line);
+            if (e != null) {
+                events.add(e);
+            }
+        }
+        long start = System.nanoTime();
+        localSeq = Math.max(localSeq, server.replaceAll(events));
+        runId = parts[1];
+        applied = seq;
+        leaderSeq = seq;
+        ServerLog.info("Loaded a snapshot of " + count + " events up to record " + seq + " from the leader in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+}
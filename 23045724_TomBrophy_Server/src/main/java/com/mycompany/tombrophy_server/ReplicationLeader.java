@@ -0,0 +1,281 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Streams the leader's journal to followers (see ReplicationFollower). The
+ * journal hands every record over as it is queued, and the last
+ * eventboard.replicationBacklog of them are kept in a ring, numbered with the
+ * journal's sequence numbers. Lines on the wire:
+ *
+ *   follower: FOLLOW <run id> <next seq>     once, on connecting
+ *   leader:   SNAPSHOT <run id> <seq> <n>    then n "date; time; description" lines
+ *   leader:   R <seq> <millis> <record>      one journal record, e.g. "+ date; time; description"
+ *   leader:   H <seq>                        heartbeat with the latest seq, when idle
+ *   follower: ACK <seq>                      everything up to seq is applied
+ *
+ * A follower that is new, was following an earlier run of the leader, or has
+ * fallen out of the ring gets a snapshot first. The snapshot is read while
+ * writes carry on, so it may already hold some of the records streamed after
+ * it; applying a record twice leaves the board the same, as with journal replay.
+ *
+ * @author tombr
+ */
+public class ReplicationLeader implements EventJournal.Listener {
+    private static final long HEARTBEAT_MILLIS = 500;
+    // Most records sent in one go before the follower's acks are looked at again
+    private static final int MAX_SEND = 1000;
+
+    public enum AckMode {
+        // Writes are acknowledged once the leader's journal has them
+        ASYNC,
+        // Writes also wait (up to eventboard.replicationTimeoutMillis) for every follower that is caught up
+        SYNC;
+
+        public static AckMode parse(String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return ASYNC;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown replication ack mode: " + value
+                        + ". Use one of " + Arrays.toString(values()));
+            }
+        }
+    }
+
+    private final ServerConfig config;
+    private final EventStore store;
+    private final ServerMetrics metrics;
+    // Tells a restarted leader's followers that their sequence numbers mean nothing any more
+    private final String runId = UUID.randomUUID().toString();
+    private final List<Follower> followers = new CopyOnWriteArrayList<>();
+
+    // Guarded by this
+    private final String[] records;
+    private final long[] times;
+    private long latestSeq;
+
+    // Writers in SYNC mode wait on this for acks
+    private final Object acks = new Object();
+
+    public ReplicationLeader(ServerConfig config, EventStore store, ServerMetrics metrics) {
+        this.config = config;
+        this.store = store;
+        this.metrics = metrics;
+        this.records = new String[config.replicationBacklog];
+        this.times = new long[config.replicationBacklog];
+    }
+
+    public void start() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(config.replicationPort);
+        Thread acceptor = new Thread(() -> accept(serverSocket), "replication-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        metrics.replicationLag("leader followers=0", 0, 0);
+        ServerLog.info("Replication leader listening on port " + config.replicationPort + " (" + config.replicationAck + ")");
+    }
+
+    private void accept(ServerSocket serverSocket) {
+        try (ServerSocket ss = serverSocket) {
+            while (true) {
+                Socket socket = ss.accept();
+                Thread.ofVirtual().name("replication-follower-", 0).start(() -> new Follower(socket).serve());
+            }
+        } catch (IOException e) {
+            ServerLog.error("Replication stopped accepting followers: " + e.getMessage());
+        }
+    }
+
+    // Called by the journal with its lock held, so records arrive in sequence order
+    @Override
+    public synchronized void appended(long seq, String record) {
+        int slot = (int) (seq % records.length);
+        records[slot] = record.endsWith("\n") ? record.substring(0, record.length() - 1) : record;
+        times[slot] = System.currentTimeMillis();
+        latestSeq = seq;
+        notifyAll();
+    }
+
+    // For SYNC: waits until every follower that is caught up has applied seq, or the timeout
+    public void awaitAcked(long seq) {
+        if (config.replicationAck != AckMode.SYNC || followers.isEmpty()) {
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.replicationTimeoutMillis);
+        synchronized (acks) {
+            while (behind(seq)) {
+                long waitMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (waitMillis <= 0) {
+                    ServerLog.error("Followers hadn't applied record " + seq + " after "
+                            + config.replicationTimeoutMillis + " ms, replying anyway");
+                    return;
+                }
+                try {
+                    acks.wait(waitMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean behind(long seq) {
+        for (Follower f : followers) {
+            if (f.live && f.acked < seq) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Lag of the slowest follower, in records and in how long ago its oldest unapplied record was written
+    private void updateLag() {
+        long lagRecords = 0;
+        long lagMillis = 0;
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (Follower f : followers) {
+                long behind = latestSeq - f.acked;
+                if (behind > lagRecords) {
+                    lagRecords = behind;
+                    long oldest = f.acked + 1;
+                    lagMillis = oldest > latestSeq - records.length ? now - times[(int) (oldest % records.length)] : 0;
+                }
+            }
+        }
+        metrics.replicationLag("leader followers=" + followers.size(), lagRecords, lagMillis);
+    }
+
+    private final class Follower {
+        private final Socket socket;
+        private volatile long acked;
+        // Past its snapshot and getting records
+        private volatile boolean live;
+
+        Follower(Socket socket) {
+            this.socket = socket;
+        }
+
+        void serve() {
+            String address = String.valueOf(socket.getRemoteSocketAddress());
+            try (Socket s = socket;
+                 BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                 PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(s.getOutputStream())), false)) {
+                s.setTcpNoDelay(true);
+                String[] hello = String.valueOf(in.readLine()).split(" ");
+                if (hello.length != 3 || !hello[0].equals("FOLLOW")) {
+                    out.println("ERROR: Expected FOLLOW <run id> <next seq>");
+                    out.flush();
+                    return;
+                }
+                long next = hello[1].equals(runId) ? Long.parseLong(hello[2]) : -1;
+                followers.add(this);
+                ServerLog.info("Follower connected: " + address);
+                Thread.ofVirtual().name("replication-acks-", 0).start(() -> readAcks(in));
+                stream(out, next);
+            } catch (IOException | NumberFormatException | InterruptedException e) {
+                // The follower went away, it will reconnect and catch up
+            } finally {
+                followers.remove(this);
+                synchronized (acks) {
+                    acks.notifyAll();
+                }
+                updateLag();
+                ServerLog.info("Follower disconnected: " + address);
+            }
+        }
+
+        private void stream(PrintWriter out, long next) throws IOException, InterruptedException {
+            List<String> batch = new ArrayList<>(MAX_SEND);
+            while (!out.checkError()) {
+                long from;
+                long latest;
+                batch.clear();
+                synchronized (ReplicationLeader.this) {
+                    if (next > latestSeq) {
+                        ReplicationLeader.this.wait(HEARTBEAT_MILLIS);
+                    }
+                    if (next < 0 || next <= latestSeq - records.length) {
+                        from = -1;
+                    } else {
+                        from = next;
+                        for (long seq = next; seq <= latestSeq && batch.size() < MAX_SEND; seq++) {
+                            int slot = (int) (seq % records.length);
+                            batch.add("R " + seq + " " + times[slot] + " " + records[slot]);
+                        }
+                    }
+                    latest = latestSeq;
+                }
+                if (from < 0) {
+                    live = false;
+                    next = sendSnapshot(out);
+                    continue;
+                }
+                if (batch.isEmpty()) {
+                    out.println("H " + latest);
+                } else {
+                    for (String record : batch) {
+                        out.println(record);
+                    }
+                    next = from + batch.size();
+                }
+                out.flush();
+                live = true;
+            }
+            throw new EOFException("follower closed the connection");
+        }
+
+        // Sends every event on the board and returns the first seq the follower still needs
+        private long sendSnapshot(PrintWriter out) {
+            long seq;
+            synchronized (ReplicationLeader.this) {
+                seq = latestSeq;
+            }
+            // Every change up to seq was made to the store before it got its seq
+            List<Event> events = new ArrayList<>();
+            for (NavigableSet<Event> day : store.allDays()) {
+                events.addAll(day);
+            }
+            out.println("SNAPSHOT " + runId + " " + seq + " " + events.size());
+            for (Event e : events) {
+                out.println(e.date + "; " + e.time + "; " + e.description);
+            }
+            out.flush();
+            ServerLog.info("Sent a snapshot of " + events.size() + " events up to record " + seq
+                    + " to " + socket.getRemoteSocketAddress());
+            return seq + 1;
+        }
+
+        private void readAcks(BufferedReader in) {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("ACK ")) {
+                        acked = Long.parseLong(line.substring(4).trim());
+                        synchronized (acks) {
+                            acks.notifyAll();
+                        }
+                        updateLag();
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // Closing the socket ends serve() as well
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
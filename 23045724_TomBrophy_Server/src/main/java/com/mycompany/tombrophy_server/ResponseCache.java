@@ -0,0 +1,116 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Finished "list" replies, one per day. Each entry remembers the
+ * EventStore.version it was built from, so an add or remove on that day makes
+ * it stale without the write path having to touch the cache. The least
+ * recently used replies are dropped once the cached text goes over the
+ * configured number of characters.
+ *
+ * @author tombr
+ */
+public class ResponseCache {
+    private static final class Entry {
+        final long version;
+        final String response;
+
+        Entry(long version, String response) {
+            this.version = version;
+            this.response = response;
+        }
+    }
+
+    private final long maxChars;
+    // Guarded by this
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long chars;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // maxChars 0 turns the cache off
+    public ResponseCache(long maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    public boolean enabled() {
+        return maxChars > 0;
+    }
+
+    // The cached reply for the day if it was built from this version, otherwise null
+    public String get(LocalDate day, long version) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(day.toEpochDay());
+        }
+        if (entry != null && entry.version == version) {
+            hits.increment();
+            return entry.response;
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(LocalDate day, long version, String response) {
+        // One huge day shouldn't push everything else out
+        if (response.length() > maxChars / 8) {
+            return;
+        }
+        synchronized (this) {
+            Long key = day.toEpochDay();
+            Entry old = entries.get(key);
+            if (old != null) {
+                // A slower reader finishing late mustn't replace a newer reply
+                if (old.version > version) {
+                    return;
+                }
+                chars -= old.response.length();
+            }
+            entries.put(key, new Entry(version, response));
+            chars += response.length();
+
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (chars > maxChars && eldest.hasNext()) {
+                chars -= eldest.next().response.length();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public String report() {
+        long chars;
+        int size;
+        synchronized (this) {
+            chars = this.chars;
+            size = entries.size();
+        }
+        return String.format("list cache: entries=%d chars=%d/%d hits=%d misses=%d evictions=%d",
+                size, chars, maxChars, hits(), misses(), evictions());
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Inverted index over the words of event descriptions, kept up to date by
+ * EventStore as events are added and removed. Words are runs of letters and
+ * digits, lower-cased. Each word has a posting set of its events sorted by
+ * date and time, so a search reads them in the order they are returned and
+ * can stop as soon as it has enough.
+ *
+ * A search term matches every word it is a prefix of ("fire" finds
+ * "Fireworks"), and an event must match all the terms. Only the term with
+ * the fewest events is read from the index; the other terms are checked
+ * against each of its events' descriptions in place, which is cheaper than
+ * seeking in their postings when the words are spread evenly over the dates.
+ *
+ * @author tombr
+ */
+public class SearchIndex {
+    // Date and time of day, then the cached hash so adding to a posting rarely compares
+    // text; the day's own order settles hash clashes, keeping it consistent with equals
+    static final Comparator<Event> BY_DATE = (a, b) -> {
+        int c = Integer.compare(a.epochDay, b.epochDay);
+        if (c == 0) {
+            c = Integer.compare(a.minuteOfDay, b.minuteOfDay);
+        }
+        if (c == 0) {
+            c = Integer.compare(a.hashCode(), b.hashCode());
+        }
+        return c != 0 || a == b ? c : Event.BY_TIME.compare(a, b);
+    };
+
+    private static final class Posting {
+        final ConcurrentSkipListSet<Event> events = new ConcurrentSkipListSet<>(BY_DATE);
+        // Changed under the posting's lock; the skip list's size() walks the whole set
+        volatile int size;
+        // Set once remove() has emptied the posting and dropped it from the map
+        boolean dropped;
+    }
+
+    private final ConcurrentSkipListMap<String, Posting> words = new ConcurrentSkipListMap<>();
+
+    // Called by EventStore under the event's day lock. Two days' locks can both be
+    // changing one word's posting, so the posting's own lock keeps an add from going
+    // into a posting that a remove has just found empty and dropped.
+    void add(Event e) {
+        for (String word : tokens(e.description)) {
+            while (true) {
+                Posting p = words.get(word);
+                if (p == null) {
+                    p = words.computeIfAbsent(word, w -> new Posting());
+                }
+                synchronized (p) {
+                    if (!p.dropped) {
+                        if (p.events.add(e)) {
+                            p.size++;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    void remove(Event e) {
+        for (String word : tokens(e.description)) {
+            Posting p = words.get(word);
+            if (p == null) {
+                continue;
+            }
+            synchronized (p) {
+                if (p.events.remove(e)) {
+                    p.size--;
+                    if (p.events.isEmpty()) {
+                        p.dropped = true;
+                        words.remove(word, p);
+                    }
+                }
+            }
+        }
+    }
+
+    public int wordCount() {
+        return words.size();
+    }
+
+    // Up to limit events matching every term, in date order. Terms are split and
+    // lower-cased like descriptions; no terms at all finds nothing.
+    public List<Event> search(String terms, int limit) {
+        List<String> prefixes = new ArrayList<>(tokens(terms));
+        List<Event> found = new ArrayList<>();
+        if (prefixes.isEmpty()) {
+            return found;
+        }
+
+        // Walk the term with the fewest events, and check the rest against each one
+        String rarest = null;
+        long fewest = Long.MAX_VALUE;
+        for (String prefix : prefixes) {
+            long count = count(prefix, fewest);
+            if (count < fewest) {
+                fewest = count;
+                rarest = prefix;
+            }
+        }
+        if (fewest == 0) {
+            return found;
+        }
+        prefixes.remove(rarest);
+
+        Iterator<Event> candidates = merged(rarest);
+        while (candidates.hasNext() && found.size() < limit) {
+            Event e = candidates.next();
+            if (matchesAll(e, prefixes)) {
+                found.add(e);
+            }
+        }
+        return found;
+    }
+
+    // Events under words starting with prefix, counting no further than stopAt
+    private long count(String prefix, long stopAt) {
+        long total = 0;
+        for (Posting p : matching(prefix).values()) {
+            total += p.size;
+            if (total >= stopAt) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    private NavigableMap<String, Posting> matching(String prefix) {
+        return words.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    // The postings of every word starting with prefix, merged in date order. An event
+    // under two of the words ("fire", "fireworks") comes out once.
+    private Iterator<Event> merged(String prefix) {
+        NavigableMap<String, Posting> postings = matching(prefix);
+        Map.Entry<String, Posting> first = postings.firstEntry();
+        if (first == null) {
+            return Collections.emptyIterator();
+        }
+        if (first.getKey().equals(postings.lastKey())) {
+            return first.getValue().events.iterator();
+        }
+        PriorityQueue<PeekingIterator> heads = new PriorityQueue<>((a, b) -> BY_DATE.compare(a.head, b.head));
+        for (Posting p : postings.values()) {
+            PeekingIterator it = new PeekingIterator(p.events.iterator());
+            if (it.head != null) {
+                heads.add(it);
+            }
+        }
+        return new Iterator<Event>() {
+            private Event last;
+
+            @Override
+            public boolean hasNext() {
+                while (!heads.isEmpty() && last != null && BY_DATE.compare(heads.peek().head, last) == 0) {
+                    advance(heads.poll());
+                }
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public Event next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                PeekingIterator it = heads.poll();
+                last = it.head;
+                advance(it);
+                return last;
+            }
+
+            private void advance(PeekingIterator it) {
+                if (it.advance()) {
+                    heads.add(it);
+                }
+            }
+        };
+    }
+
+    private static final class PeekingIterator {
+        private final Iterator<Event> it;
+        Event head;
+
+        PeekingIterator(Iterator<Event> it) {
+            this.it = it;
+            advance();
+        }
+
+        boolean advance() {
+            head = it.hasNext() ? it.next() : null;
+            return head != null;
+        }
+    }
+
+    private static boolean matchesAll(Event e, List<String> prefixes) {
+        for (String prefix : prefixes) {
+            if (!hasWordStartingWith(e.description, prefix)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Same answer as looking through tokens(text), without cutting the words out
+    static boolean hasWordStartingWith(String text, String prefix) {
+        int n = text.length();
+        for (int i = 0; i < n; i++) {
+            if (Character.isLetterOrDigit(text.charAt(i)) && (i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1)))
+                    && startsWordWith(text, i, prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWordWith(String text, int at, String prefix) {
+        int k = 0;
+        while (k < prefix.length() && at + k < text.length()) {
+            char c = text.charAt(at + k);
+            if (!Character.isLetterOrDigit(c) || Character.toLowerCase(c) != prefix.charAt(k)) {
+                return false;
+            }
+            k++;
+        }
+        return k == prefix.length();
+    }
+
+    // The distinct lower-cased runs of letters and digits in the text
+    static Set<String> tokens(String text) {
+        Set<String> found = new LinkedHashSet<>();
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            while (i < n && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < n && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                found.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+            }
+        }
+        return found;
+    }
+}
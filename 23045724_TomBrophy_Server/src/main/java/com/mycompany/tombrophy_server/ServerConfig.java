@@ -0,0 +1,258 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.util.*;
+
+/**
+ * Server settings, read from -Deventboard.* system properties so they can be
+ * passed in through exec.vmArgs.
+ *
+ * @author tombr
+ */
+public class ServerConfig {
+    static final int DEFAULT_PORT = 1012;
+    static final String DEFAULT_EVENTS_FILE = "events.txt";
+    static final String DEFAULT_JOURNAL_FILE = "events.journal";
+    static final String DEFAULT_SNAPSHOT_FILE = "events.snap";
+
+    int port = DEFAULT_PORT;
+    String eventsFile = DEFAULT_EVENTS_FILE;
+    // Every add/remove is appended here, events.txt is only the last compacted snapshot
+    String journalFile = DEFAULT_JOURNAL_FILE;
+    // BINARY snapshots go to snapshotFile instead of eventsFile. Startup loads whichever of
+    // the two is newer, so switching either way is just a restart with the new setting: the
+    // old format's file is loaded once and a snapshot in the new one is written straight away.
+    // To switch offline instead, convert with EventSnapshot's main (which writes the newer file).
+    EventSnapshot.Format snapshotFormat = EventSnapshot.Format.TEXT;
+    String snapshotFile = DEFAULT_SNAPSHOT_FILE;
+    EventJournal.FsyncPolicy fsync = EventJournal.FsyncPolicy.INTERVAL;
+    // Whether add and remove wait for the journal writer before replying
+    EventJournal.Durability durability = EventJournal.Durability.FLUSHED;
+    // Used by the INTERVAL fsync policy
+    int fsyncMillis = 200;
+    // Fold the journal into a new snapshot this often, or sooner once it has this many records
+    int compactSeconds = 60;
+    int compactRecords = 100_000;
+    ExecutionMode mode = ExecutionMode.THREAD;
+    // Only used in POOLED mode
+    int poolSize = 200;
+    int poolQueue = 50;
+    // Connections served at once, 0 means no cap. Past it the server stops accepting and
+    // new connections wait in the listen backlog (acceptBacklog long) until one closes.
+    int maxConnections = 0;
+    int acceptBacklog = 1024;
+    // Close a connection that has sent nothing for this long, unless it is subscribed to a day. 0 never does.
+    int idleSeconds = 0;
+    // Requests a second one client address can make, refused past that with a THROTTLED error.
+    // Writes are add, remove, batch and bulkload (a batch or bulkload counts every line), reads
+    // everything else. 0 means no limit.
+    // Behind a ShardRouter every client has the router's address, so leave these off on shards.
+    int writesPerSecond = 0;
+    int readsPerSecond = 0;
+    // Only used in NIO mode
+    int nioWorkers = Math.max(2, Runtime.getRuntime().availableProcessors());
+    // Characters of finished list replies to keep, 0 turns the cache off
+    long cacheChars = 4_000_000;
+    // Keep an index of description words for search; costs memory for every event
+    boolean search = true;
+    // Directory bulkload; file reads from, "" turns file loading off
+    String bulkloadDir = ".";
+    // URLs bulkload; url may fetch, as prefixes like https://data.example.com/events/ that the
+    // scheme, host, port and start of the path must match. Empty, the default, turns URL loading
+    // off: otherwise any client could have the server fetch any address, internal ones included.
+    List<String> bulkloadUrls = List.of();
+    // Threads parsing chunks of a bulkload
+    int bulkloadThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    // Days before today - retentionDays move off the board into per-month files in archiveDir,
+    // checked every retentionSeconds. 0 keeps everything on the board.
+    int retentionDays = 0;
+    String archiveDir = "archive";
+    int retentionSeconds = 3600;
+    // How often to print the connection report, 0 turns it off
+    int reportSeconds = 0;
+    // Most log lines printed a second, the rest are counted and dropped. 0 means no limit
+    int logPerSecond = 200;
+    // ShardRouter only: the shard servers as host:port, and how many points each gets on the hash ring
+    List<String> shards = List.of();
+    int virtualNodes = 160;
+    // ShardRouter only: start this many shard servers in the router's JVM on the ports after its own
+    int localShards = 0;
+    // Pushes waiting to be written to one connection before it counts as too slow and is dropped
+    int pushQueue = 256;
+    // Days one connection can subscribe to
+    int maxSubscriptions = 100;
+    // Leader: port followers connect to, 0 means no replication
+    int replicationPort = 0;
+    // Follower: the leader's host:replicationPort. A follower only serves reads.
+    String leader = "";
+    // Leader: whether add and remove wait for the followers to apply the change
+    ReplicationLeader.AckMode replicationAck = ReplicationLeader.AckMode.ASYNC;
+    // Leader: longest a SYNC write waits for followers before replying anyway
+    int replicationTimeoutMillis = 1000;
+    // Leader: records kept for followers that fall behind; one further back gets a new snapshot
+    int replicationBacklog = 100_000;
+
+    public static ServerConfig fromSystemProperties() {
+        ServerConfig config = new ServerConfig();
+        config.port = Integer.getInteger("eventboard.port", DEFAULT_PORT);
+        config.eventsFile = System.getProperty("eventboard.eventsFile", DEFAULT_EVENTS_FILE);
+        config.journalFile = System.getProperty("eventboard.journalFile", DEFAULT_JOURNAL_FILE);
+        config.snapshotFormat = EventSnapshot.Format.parse(System.getProperty("eventboard.snapshotFormat"));
+        config.snapshotFile = System.getProperty("eventboard.snapshotFile", DEFAULT_SNAPSHOT_FILE);
+        config.fsync = EventJournal.FsyncPolicy.parse(System.getProperty("eventboard.fsync"));
+        config.durability = EventJournal.Durability.parse(System.getProperty("eventboard.durability"));
+        config.fsyncMillis = Integer.getInteger("eventboard.fsyncMillis", config.fsyncMillis);
+        config.compactSeconds = Integer.getInteger("eventboard.compactSeconds", config.compactSeconds);
+        config.compactRecords = Integer.getInteger("eventboard.compactRecords", config.compactRecords);
+        config.mode = ExecutionMode.parse(System.getProperty("eventboard.mode"));
+        config.poolSize = Integer.getInteger("eventboard.poolSize", config.poolSize);
+        config.poolQueue = Integer.getInteger("eventboard.poolQueue", config.poolQueue);
+        config.maxConnections = Integer.getInteger("eventboard.maxConnections", config.maxConnections);
+        config.acceptBacklog = Integer.getInteger("eventboard.acceptBacklog", config.acceptBacklog);
+        config.idleSeconds = Integer.getInteger("eventboard.idleSeconds", config.idleSeconds);
+        config.writesPerSecond = Integer.getInteger("eventboard.writesPerSecond", config.writesPerSecond);
+        config.readsPerSecond = Integer.getInteger("eventboard.readsPerSecond", config.readsPerSecond);
+        config.nioWorkers = Integer.getInteger("eventboard.nioWorkers", config.nioWorkers);
+        config.cacheChars = Long.getLong("eventboard.cacheChars", config.cacheChars);
+        config.search = Boolean.parseBoolean(System.getProperty("eventboard.search", "true"));
+        config.bulkloadDir = System.getProperty("eventboard.bulkloadDir", config.bulkloadDir).trim();
+        config.bulkloadThreads = Integer.getInteger("eventboard.bulkloadThreads", config.bulkloadThreads);
+        config.bulkloadUrls = parseList(System.getProperty("eventboard.bulkloadUrls"));
+        config.retentionDays = Integer.getInteger("eventboard.retentionDays", config.retentionDays);
+        config.archiveDir = System.getProperty("eventboard.archiveDir", config.archiveDir).trim();
+        config.retentionSeconds = Integer.getInteger("eventboard.retentionSeconds", config.retentionSeconds);
+        config.reportSeconds = Integer.getInteger("eventboard.reportSeconds", config.reportSeconds);
+        config.logPerSecond = Integer.getInteger("eventboard.logPerSecond", config.logPerSecond);
+        config.shards = parseList(System.getProperty("eventboard.shards"));
+        config.virtualNodes = Integer.getInteger("eventboard.virtualNodes", config.virtualNodes);
+        config.localShards = Integer.getInteger("eventboard.localShards", config.localShards);
+        config.pushQueue = Integer.getInteger("eventboard.pushQueue", config.pushQueue);
+        config.maxSubscriptions = Integer.getInteger("eventboard.maxSubscriptions", config.maxSubscriptions);
+        config.replicationPort = Integer.getInteger("eventboard.replicationPort", config.replicationPort);
+        config.leader = System.getProperty("eventboard.leader", config.leader).trim();
+        config.replicationAck = ReplicationLeader.AckMode.parse(System.getProperty("eventboard.replicationAck"));
+        config.replicationTimeoutMillis = Integer.getInteger("eventboard.replicationTimeoutMillis", config.replicationTimeoutMillis);
+        config.replicationBacklog = Integer.getInteger("eventboard.replicationBacklog", config.replicationBacklog);
+
+        if (config.poolSize < 1) {
+            throw new IllegalArgumentException("eventboard.poolSize must be at least 1");
+        }
+        if (config.fsyncMillis < 1) {
+            throw new IllegalArgumentException("eventboard.fsyncMillis must be at least 1");
+        }
+        if (config.nioWorkers < 1) {
+            throw new IllegalArgumentException("eventboard.nioWorkers must be at least 1");
+        }
+        if (config.maxConnections < 0) {
+            throw new IllegalArgumentException("eventboard.maxConnections can't be negative");
+        }
+        if (config.acceptBacklog < 1) {
+            throw new IllegalArgumentException("eventboard.acceptBacklog must be at least 1");
+        }
+        if (config.idleSeconds < 0) {
+            throw new IllegalArgumentException("eventboard.idleSeconds can't be negative");
+        }
+        if (config.writesPerSecond < 0 || config.readsPerSecond < 0) {
+            throw new IllegalArgumentException("eventboard.writesPerSecond and eventboard.readsPerSecond can't be negative");
+        }
+        if (config.bulkloadThreads < 1) {
+            throw new IllegalArgumentException("eventboard.bulkloadThreads must be at least 1");
+        }
+        for (String url : config.bulkloadUrls) {
+            if (!BulkLoader.isUrlPrefix(url)) {
+                throw new IllegalArgumentException("eventboard.bulkloadUrls must be http(s) URLs with a host, not " + url);
+            }
+        }
+        if (config.retentionDays < 0) {
+            throw new IllegalArgumentException("eventboard.retentionDays can't be negative");
+        }
+        if (config.retentionDays > 0 && config.archiveDir.isEmpty()) {
+            throw new IllegalArgumentException("eventboard.archiveDir can't be empty when eventboard.retentionDays is set");
+        }
+        if (config.retentionSeconds < 1) {
+            throw new IllegalArgumentException("eventboard.retentionSeconds must be at least 1");
+        }
+        if (config.cacheChars < 0) {
+            throw new IllegalArgumentException("eventboard.cacheChars can't be negative");
+        }
+        if (config.logPerSecond < 0) {
+            throw new IllegalArgumentException("eventboard.logPerSecond can't be negative");
+        }
+        if (config.virtualNodes < 1) {
+            throw new IllegalArgumentException("eventboard.virtualNodes must be at least 1");
+        }
+        if (config.localShards < 0) {
+            throw new IllegalArgumentException("eventboard.localShards can't be negative");
+        }
+        if (config.pushQueue < 1) {
+            throw new IllegalArgumentException("eventboard.pushQueue must be at least 1");
+        }
+        if (config.maxSubscriptions < 0) {
+            throw new IllegalArgumentException("eventboard.maxSubscriptions can't be negative");
+        }
+        if (config.replicationPort > 0 && !config.leader.isEmpty()) {
+            throw new IllegalArgumentException("A server can't be a leader (eventboard.replicationPort) and a follower (eventboard.leader) at once");
+        }
+        if (config.replicationTimeoutMillis < 0) {
+            throw new IllegalArgumentException("eventboard.replicationTimeoutMillis can't be negative");
+        }
+        if (config.replicationBacklog < 1) {
+            throw new IllegalArgumentException("eventboard.replicationBacklog must be at least 1");
+        }
+        if (config.poolQueue < 0) {
+            throw new IllegalArgumentException("eventboard.poolQueue can't be negative");
+        }
+        return config;
+    }
+
+    // "a, b,c" -> [a, b, c], blanks dropped
+    static List<String> parseList(String value) {
+        List<String> items = new ArrayList<>();
+        if (value != null) {
+            for (String item : value.split(",")) {
+                if (!item.trim().isEmpty()) {
+                    items.add(item.trim());
+                }
+            }
+        }
+        return items;
+    }
+
+    @Override
+    public String toString() {
+        String s = "port=" + port + ", mode=" + mode + ", eventsFile=" + eventsFile
+                + ", journalFile=" + journalFile + ", fsync=" + fsync + ", durability=" + durability;
+        if (snapshotFormat == EventSnapshot.Format.BINARY) {
+            s += ", snapshotFile=" + snapshotFile;
+        }
+        if (!bulkloadUrls.isEmpty()) {
+            s += ", bulkloadUrls=" + bulkloadUrls;
+        }
+        if (retentionDays > 0) {
+            s += ", retentionDays=" + retentionDays + ", archiveDir=" + archiveDir;
+        }
+        if (maxConnections > 0) {
+            s += ", maxConnections=" + maxConnections + ", acceptBacklog=" + acceptBacklog;
+        }
+        if (idleSeconds > 0) {
+            s += ", idleSeconds=" + idleSeconds;
+        }
+        if (writesPerSecond > 0 || readsPerSecond > 0) {
+            s += ", writesPerSecond=" + writesPerSecond + ", readsPerSecond=" + readsPerSecond;
+        }
+        if (replicationPort > 0) {
+            s += ", replicationPort=" + replicationPort + ", replicationAck=" + replicationAck;
+        } else if (!leader.isEmpty()) {
+            s += ", leader=" + leader;
+        }
+        if (mode == ExecutionMode.POOLED) {
+            s += ", poolSize=" + poolSize + ", poolQueue=" + poolQueue;
+        } else if (mode == ExecutionMode.NIO) {
+            s += ", nioWorkers=" + nioWorkers;
+        }
+        return s;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Console logging off the request path. info and error only queue the line;
+ * one daemon thread prints it. Past eventboard.logPerSecond lines a second,
+ * or when the queue is full, lines are dropped and counted instead, so a
+ * connection storm can't turn into a println storm that holds up the accept
+ * loop. The drop count is printed with the next line that gets through.
+ *
+ * @author tombr
+ */
+public final class ServerLog {
+    private static final int QUEUE_SIZE = 4096;
+
+    private static final class Line {
+        final PrintStream stream;
+        final String text;
+
+        Line(PrintStream stream, String text) {
+            this.stream = stream;
+            this.text = text;
+        }
+    }
+
+    private static final BlockingQueue<Line> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final AtomicLong windowStart = new AtomicLong();
+    private static final AtomicInteger inWindow = new AtomicInteger();
+    // 0 means no limit
+    private static volatile int perSecond = 200;
+
+    static {
+        Thread writer = new Thread(ServerLog::writeLoop, "server-log");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(ServerLog::flush, "server-log-flush"));
+    }
+
+    private ServerLog() {
+    }
+
+    public static void setRateLimit(int linesPerSecond) {
+        perSecond = linesPerSecond;
+    }
+
+    public static void info(String text) {
+        offer(new Line(System.out, text));
+    }
+
+    public static void error(String text) {
+        offer(new Line(System.err, text));
+    }
+
+    public static long dropped() {
+        return dropped.get();
+    }
+
+    private static void offer(Line line) {
+        if (!withinRate() || !queue.offer(line)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private static boolean withinRate() {
+        int limit = perSecond;
+        if (limit <= 0) {
+            return true;
+        }
+        long second = System.nanoTime() / 1_000_000_000L;
+        long start = windowStart.get();
+        if (second != start && windowStart.compareAndSet(start, second)) {
+            inWindow.set(0);
+        }
+        return inWindow.incrementAndGet() <= limit;
+    }
+
+    private static void writeLoop() {
+        long reportedDrops = 0;
+        while (true) {
+            Line line;
+            try {
+                line = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long drops = dropped.get();
+            if (drops > reportedDrops) {
+                line.stream.println("(" + (drops - reportedDrops) + " log lines dropped)");
+                reportedDrops = drops;
+            }
+            line.stream.println(line.text);
+        }
+    }
+
+    // Prints whatever is still queued, for shutdown
+    public static void flush() {
+        Line line;
+        while ((line = queue.poll()) != null) {
+            line.stream.println(line.text);
+        }
+        System.out.flush();
+        System.err.flush();
+    }
+}
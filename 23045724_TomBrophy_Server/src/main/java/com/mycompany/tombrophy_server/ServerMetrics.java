@@ -0,0 +1,302 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+/**
+ * Counters and latency histograms for the whole server: commands by action,
+ * how long processMessage took for each, errors by InvalidCommandException
+ * kind, journal write and sync times and snapshot times. Everything is
+ * recorded with adders and atomic counters, so the command path never waits
+ * on it. Read it with the stats command or over JMX.
+ *
+ * @author tombr
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+    static final String OBJECT_NAME = "com.mycompany.tombrophy_server:type=ServerMetrics,port=";
+
+    private static final Command.Action[] ACTIONS = Command.Action.values();
+    private static final InvalidCommandException.Kind[] KINDS = InvalidCommandException.Kind.values();
+
+    private final long startedAt = System.nanoTime();
+    private final ConnectionStats connections;
+    private final ResponseCache listCache;
+    private final SubscriptionHub subscriptions;
+    private final RateLimiter rateLimiter;
+
+    private final LongAdder[] commands = new LongAdder[ACTIONS.length];
+    private final LatencyHistogram[] latencyByAction = new LatencyHistogram[ACTIONS.length];
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder[] errors = new LongAdder[KINDS.length];
+
+    private final LatencyHistogram journalWrites = new LatencyHistogram();
+    private final LatencyHistogram journalSyncs = new LatencyHistogram();
+    private final LatencyHistogram snapshots = new LatencyHistogram();
+
+    // Set by ReplicationLeader (slowest follower) or ReplicationFollower
+    private volatile String replicationRole = "none";
+    private volatile long replicationLagRecords;
+    private volatile long replicationLagMillis;
+
+    public ServerMetrics(ConnectionStats connections, ResponseCache listCache, SubscriptionHub subscriptions,
+            RateLimiter rateLimiter) {
+        this.connections = connections;
+        this.listCache = listCache;
+        this.subscriptions = subscriptions;
+        this.rateLimiter = rateLimiter;
+        for (int i = 0; i < ACTIONS.length; i++) {
+            commands[i] = new LongAdder();
+            latencyByAction[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < KINDS.length; i++) {
+            errors[i] = new LongAdder();
+        }
+    }
+
+    public void commandFinished(Command.Action action, long nanos) {
+        commands[action.ordinal()].increment();
+        latencyByAction[action.ordinal()].record(nanos);
+        latency.record(nanos);
+    }
+
+    public void commandFailed(Command.Action action, InvalidCommandException.Kind kind, long nanos) {
+        errors[kind.ordinal()].increment();
+        commandFinished(action, nanos);
+    }
+
+    public void journalWritten(long nanos) {
+        journalWrites.record(nanos);
+    }
+
+    public void journalSynced(long nanos) {
+        journalSyncs.record(nanos);
+    }
+
+    public void snapshotTaken(long nanos) {
+        snapshots.record(nanos);
+    }
+
+    // Keyed by port so several servers in one JVM (local shards) each get their own
+    public void replicationLag(String role, long records, long millis) {
+        replicationRole = role;
+        replicationLagRecords = records;
+        replicationLagMillis = millis;
+    }
+
+    public void register(int port) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME + port));
+        } catch (JMException e) {
+            ServerLog.error("Could not register metrics with JMX: " + e.getMessage());
+        }
+    }
+
+    // One line for the stats command
+    public String summary() {
+        StringBuilder sb = new StringBuilder("STATS uptime=").append(getUptimeSeconds()).append('s');
+        sb.append(" | connections active=").append(connections.activeConnections())
+          .append(" accepted=").append(connections.acceptedConnections())
+          .append(" rejected=").append(connections.rejectedConnections())
+          .append(" waited=").append(connections.connectionWaits())
+          .append(" idle closed=").append(connections.idleConnectionsClosed());
+        sb.append(" | throttled reads=").append(getThrottledReads())
+          .append(" writes=").append(getThrottledWrites());
+        sb.append(" | commands");
+        for (Command.Action action : ACTIONS) {
+            long n = commands[action.ordinal()].sum();
+            if (n > 0) {
+                sb.append(' ').append(name(action)).append('=').append(n)
+                  .append(" (p99 ").append(latencyByAction[action.ordinal()].percentile(99) / 1000).append("us)");
+            }
+        }
+        sb.append(" | latency us ").append(latency.summaryMicros());
+        sb.append(" | errors");
+        for (InvalidCommandException.Kind kind : KINDS) {
+            sb.append(' ').append(name(kind)).append('=').append(errors[kind.ordinal()].sum());
+        }
+        sb.append(" | journal writes=").append(journalWrites.count())
+          .append(" write p99=").append(journalWrites.percentile(99) / 1000).append("us")
+          .append(" syncs=").append(journalSyncs.count())
+          .append(" sync p99=").append(journalSyncs.percentile(99) / 1000).append("us");
+        sb.append(" | snapshots=").append(snapshots.count())
+          .append(" max=").append(getSnapshotMaxMillis()).append("ms");
+        sb.append(" | list cache hits=").append(listCache.hits())
+          .append(" misses=").append(listCache.misses())
+          .append(" evictions=").append(listCache.evictions());
+        sb.append(" | push subscribers=").append(subscriptions.subscribers())
+          .append(" pushes=").append(subscriptions.pushes())
+          .append(" evictions=").append(subscriptions.evictions());
+        sb.append(" | replication ").append(replicationRole)
+          .append(" lag=").append(replicationLagRecords).append(" records ").append(replicationLagMillis).append("ms");
+        sb.append(" | log dropped=").append(ServerLog.dropped());
+        return sb.toString();
+    }
+
+    private static String name(Enum<?> e) {
+        return e.name().toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public long getUptimeSeconds() {
+        return (System.nanoTime() - startedAt) / 1_000_000_000L;
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return connections.activeConnections();
+    }
+
+    @Override
+    public long getAcceptedConnections() {
+        return connections.acceptedConnections();
+    }
+
+    @Override
+    public long getRejectedConnections() {
+        return connections.rejectedConnections();
+    }
+
+    @Override
+    public long getConnectionWaits() {
+        return connections.connectionWaits();
+    }
+
+    @Override
+    public long getIdleConnectionsClosed() {
+        return connections.idleConnectionsClosed();
+    }
+
+    @Override
+    public long getThrottledReads() {
+        return rateLimiter.throttled(RateLimiter.Kind.READ);
+    }
+
+    @Override
+    public long getThrottledWrites() {
+        return rateLimiter.throttled(RateLimiter.Kind.WRITE);
+    }
+
+    @Override
+    public Map<String, Long> getCommandCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Command.Action action : ACTIONS) {
+            counts.put(name(action), commands[action.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (InvalidCommandException.Kind kind : KINDS) {
+            counts.put(name(kind), errors[kind.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public long getLatencyP50Micros() {
+        return latency.percentile(50) / 1000;
+    }
+
+    @Override
+    public long getLatencyP99Micros() {
+        return latency.percentile(99) / 1000;
+    }
+
+    @Override
+    public long getLatencyP999Micros() {
+        return latency.percentile(99.9) / 1000;
+    }
+
+    @Override
+    public long getLatencyMaxMicros() {
+        return latency.max() / 1000;
+    }
+
+    @Override
+    public long latencyMicros(String command, double percentile) {
+        for (Command.Action action : ACTIONS) {
+            if (name(action).equalsIgnoreCase(command.trim())) {
+                return latencyByAction[action.ordinal()].percentile(percentile) / 1000;
+            }
+        }
+        throw new IllegalArgumentException("Unknown command: " + command);
+    }
+
+    @Override
+    public long getJournalWriteP99Micros() {
+        return journalWrites.percentile(99) / 1000;
+    }
+
+    @Override
+    public long getJournalSyncP99Micros() {
+        return journalSyncs.percentile(99) / 1000;
+    }
+
+    @Override
+    public long getSnapshotMaxMillis() {
+        return snapshots.max() / 1_000_000;
+    }
+
+    @Override
+    public long getListCacheHits() {
+        return listCache.hits();
+    }
+
+    @Override
+    public long getListCacheMisses() {
+        return listCache.misses();
+    }
+
+    @Override
+    public long getListCacheEvictions() {
+        return listCache.evictions();
+    }
+
+    @Override
+    public int getSubscribers() {
+        return subscriptions.subscribers();
+    }
+
+    @Override
+    public long getPushes() {
+        return subscriptions.pushes();
+    }
+
+    @Override
+    public long getSlowSubscriberEvictions() {
+        return subscriptions.evictions();
+    }
+
+    @Override
+    public String getReplicationRole() {
+        return replicationRole;
+    }
+
+    @Override
+    public long getReplicationLagRecords() {
+        return replicationLagRecords;
+    }
+
+    @Override
+    public long getReplicationLagMillis() {
+        return replicationLagMillis;
+    }
+
+    @Override
+    public long getDroppedLogLines() {
+        return ServerLog.dropped();
+    }
+
+    @Override
+    public String getSummary() {
+        return summary();
+    }
+}
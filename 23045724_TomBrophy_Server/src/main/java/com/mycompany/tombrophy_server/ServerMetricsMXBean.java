@@ -0,0 +1,79 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.util.*;
+
+/**
+ * What ServerMetrics shows over JMX, under
+ * com.mycompany.tombrophy_server:type=ServerMetrics,port=<server port>.
+ * Latencies are in microseconds.
+ *
+ * @author tombr
+ */
+public interface ServerMetricsMXBean {
+    long getUptimeSeconds();
+
+    int getActiveConnections();
+
+    long getAcceptedConnections();
+
+    long getRejectedConnections();
+
+    // Times eventboard.maxConnections was reached and new connections waited in the backlog
+    long getConnectionWaits();
+
+    long getIdleConnectionsClosed();
+
+    // Requests refused by eventboard.readsPerSecond and writesPerSecond
+    long getThrottledReads();
+
+    long getThrottledWrites();
+
+    Map<String, Long> getCommandCounts();
+
+    Map<String, Long> getErrorCounts();
+
+    long getLatencyP50Micros();
+
+    long getLatencyP99Micros();
+
+    long getLatencyP999Micros();
+
+    long getLatencyMaxMicros();
+
+    // Percentile (0-100) of one command's latency, e.g. ("list", 99)
+    long latencyMicros(String command, double percentile);
+
+    long getJournalWriteP99Micros();
+
+    long getJournalSyncP99Micros();
+
+    long getSnapshotMaxMillis();
+
+    long getListCacheHits();
+
+    long getListCacheMisses();
+
+    long getListCacheEvictions();
+
+    int getSubscribers();
+
+    long getPushes();
+
+    long getSlowSubscriberEvictions();
+
+    String getReplicationRole();
+
+    // On a leader, how far its slowest follower is behind; on a follower, how far it is behind
+    long getReplicationLagRecords();
+
+    long getReplicationLagMillis();
+
+    long getDroppedLogLines();
+
+    // The same line the stats command replies with
+    String getSummary();
+}
@@ -0,0 +1,525 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+/**
+ * Front end for a cluster of ordinary EventBoard servers (shards) that each
+ * own some of the days. Clients talk to the router with the normal protocol.
+ * add, remove and list go to the shard that owns the date, picked with a
+ * ConsistentHashRing. range, upcoming and search go to every shard and their
+ * events are merged by date. A batch is split into one smaller batch per shard.
+ *
+ * Each client connection gets its own connection to each shard, opened the
+ * first time that shard is needed, so one client's commands reach a shard in
+ * the order they were sent. Those connections use the binary protocol, so the
+ * merge works on the shards' decoded events rather than on reply text, which a
+ * description could make ambiguous.
+ *
+ * Run it with -Deventboard.shards=localhost:1013,localhost:1014 pointing at
+ * running servers, or with -Deventboard.localShards=3 to start the shards in
+ * this JVM on the ports after eventboard.port, each with its files in its own
+ * shard-<n> directory.
+ *
+ * @author tombr
+ */
+public class ShardRouter {
+    private static final Pattern BATCH_REPLY = Pattern.compile("BATCH \\d+: (\\d+) applied, (\\d+) unchanged, (\\d+) failed(?: \\((.*)\\))?");
+    private static final Pattern BATCH_ERROR = Pattern.compile("(?:^|; )line (\\d+): ");
+
+    private final ServerConfig config;
+    private final ConsistentHashRing ring;
+    private final ConnectionStats connectionStats = new ConnectionStats(ExecutionMode.VIRTUAL);
+
+    public ShardRouter(ServerConfig config) {
+        this.config = config;
+        this.ring = new ConsistentHashRing(config.shards, config.virtualNodes);
+    }
+
+    public void start() {
+        ServerLog.setRateLimit(config.logPerSecond);
+        ServerLog.info("ShardRouter started on port: " + config.port + " (shards=" + config.shards
+                + ", virtualNodes=" + config.virtualNodes + ")");
+
+        ExecutorService sessions = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("router-client-", 0).factory());
+        try (ServerSocket serverSocket = new ServerSocket(config.port)) {
+            while (true) {
+                Socket clientSocket = serverSocket.accept();
+                connectionStats.connectionAccepted();
+                sessions.execute(new Session(clientSocket));
+            }
+        } catch (IOException e) {
+            ServerLog.error("Could not listen on port " + config.port + ": " + e.getMessage());
+            System.exit(1);
+        } finally {
+            sessions.shutdownNow();
+        }
+    }
+
+    // Starts count shard servers in this JVM on the ports after the router's, and returns
+    // their addresses once they all accept connections
+    static List<String> startLocalShards(ServerConfig routerConfig, int count) throws IOException, InterruptedException {
+        List<String> shards = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ServerConfig config = ServerConfig.fromSystemProperties();
+            config.port = routerConfig.port + 1 + i;
+            Path dir = Paths.get("shard-" + i);
+            Files.createDirectories(dir);
+            config.eventsFile = dir.resolve(Paths.get(config.eventsFile).getFileName()).toString();
+            config.journalFile = dir.resolve(Paths.get(config.journalFile).getFileName()).toString();
+            config.snapshotFile = dir.resolve(Paths.get(config.snapshotFile).getFileName()).toString();
+
+            Thread shard = new Thread(new TomBrophy_Server(config)::start, "shard-" + i);
+            shard.setDaemon(true);
+            shard.start();
+            shards.add("localhost:" + config.port);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        for (String shard : shards) {
+            while (true) {
+                try {
+                    connect(shard).close();
+                    break;
+                } catch (ConnectException e) {
+                    if (System.nanoTime() > deadline) {
+                        throw new IOException("Shard " + shard + " did not start");
+                    }
+                    Thread.sleep(50);
+                }
+            }
+        }
+        return shards;
+    }
+
+    static Socket connect(String address) throws IOException {
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IOException("Shard address must be host:port, not " + address);
+        }
+        try {
+            return new Socket(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            throw new IOException("Shard address must be host:port, not " + address);
+        }
+    }
+
+    // One shard connection belonging to a session, switched to the binary protocol
+    private static final class Shard implements Closeable {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+
+        Shard(String address) throws IOException {
+            socket = connect(address);
+            socket.setTcpNoDelay(true);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+            readLine(); // The welcome line
+            out.write((WireProtocol.UPGRADE + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            String reply = readLine();
+            if (!reply.equals(WireProtocol.UPGRADED)) {
+                throw new IOException("did not switch to the binary protocol: " + reply);
+            }
+        }
+
+        // The text lines before the switch
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new EOFException("closed the connection");
+                }
+                line.write(b);
+            }
+            return line.toString(StandardCharsets.UTF_8).strip();
+        }
+
+        void send(String message) throws IOException {
+            WireProtocol.writeRequest(out, message);
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        byte[] readFrame() throws IOException {
+            byte[] frame = WireProtocol.readFrame(in);
+            if (frame == null) {
+                throw new EOFException("closed the connection");
+            }
+            return frame;
+        }
+
+        String readReply() throws IOException {
+            return WireProtocol.toText(readFrame());
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    // One event of a gathered reply, as a shard's EVENTS frame carried it
+    private static final class ShardEvent {
+        final int day;
+        final int minute;
+        final String time;
+        final String description;
+
+        ShardEvent(int day, int minute, String time, String description) {
+            this.day = day;
+            this.minute = minute;
+            this.time = time;
+            this.description = description;
+        }
+    }
+
+    // One batch line on its way to a shard, with where it was in the client's batch
+    private static final class BatchLine {
+        final int index;
+        final String text;
+
+        BatchLine(int index, String text) {
+            this.index = index;
+            this.text = text;
+        }
+    }
+
+    private final class Session implements Runnable {
+        private final Socket clientSocket;
+        private final Shard[] shards = new Shard[ring.size()];
+        private final Command command = new Command();
+
+        Session(Socket clientSocket) {
+            this.clientSocket = clientSocket;
+        }
+
+        @Override
+        public void run() {
+            connectionStats.handlerStarted();
+            try (
+                PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), false);
+                BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()))
+            ) {
+                out.println("WELCOME To EventBoard. Connected to router at "
+                        + clientSocket.getLocalAddress().getHostAddress() + ":" + clientSocket.getLocalPort()
+                        + ", Your address is " + clientSocket.getInetAddress().getHostAddress() + ":" + clientSocket.getPort());
+                out.flush();
+
+                String line;
+                while ((line = in.readLine()) != null) {
+                    int tag = TomBrophy_Server.tagLength(line);
+                    String reply;
+                    int batchLines = TomBrophy_Server.batchLength(line, command);
+                    if (batchLines > 0) {
+                        List<String> batch = new ArrayList<>(batchLines);
+                        String next;
+                        while (batch.size() < batchLines && (next = in.readLine()) != null) {
+                            batch.add(next);
+                        }
+                        reply = routeBatch(batch);
+                    } else {
+                        reply = route(line.substring(tag));
+                    }
+                    out.print(line.substring(0, tag));
+                    out.println(reply);
+                    if (!in.ready()) {
+                        out.flush();
+                    }
+                    if ("TERMINATE".equals(reply)) {
+                        break;
+                    }
+                }
+                out.flush();
+            } catch (IOException e) {
+                ServerLog.error("Router client error: " + e.getMessage());
+            } finally {
+                connectionStats.handlerFinished();
+                for (Shard shard : shards) {
+                    if (shard != null) {
+                        shard.close();
+                    }
+                }
+                try {
+                    clientSocket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        private String route(String message) {
+            CommandParser.parse(message, command);
+            switch (command.action) {
+                case ADD:
+                case REMOVE:
+                case LIST:
+                    return call(owner(command), message);
+                case RANGE:
+                    return gather(message, Integer.MAX_VALUE);
+                case UPCOMING:
+                    long count = command.parts < 2 ? CommandParser.NOT_A_NUMBER
+                            : CommandParser.parseInt(command.text, command.start[1], command.end[1]);
+                    // A bad count gets the same error from every shard, so any one will do
+                    return count < 1 || count > TomBrophy_Server.MAX_UPCOMING ? call(0, message) : gather(message, (int) count);
+                case SEARCH:
+                    long results = command.isBlank(2) ? TomBrophy_Server.DEFAULT_SEARCH_RESULTS
+                            : CommandParser.parseInt(command.text, command.start[2], command.end[2]);
+                    return command.isBlank(1) || results < 1 || results > TomBrophy_Server.MAX_UPCOMING
+                            ? call(0, message) : gather(message, (int) results);
+                case STATS:
+                    return stats();
+                case SUBSCRIBE:
+                case UNSUBSCRIBE:
+                    // Pushes would arrive on the router's own shard connections, mixed in with replies
+                    return "ERROR: subscribe isn't available through the router, connect to a shard";
+                case BULKLOAD:
+                    // A shard would load every day in the file, not just its own
+                    return "ERROR: bulkload isn't available through the router, use import or batches";
+                case PROTOCOL:
+                    // The router passes replies on as text lines
+                    return "ERROR: The binary protocol isn't available through the router, connect to a shard";
+                case STOP:
+                    return "TERMINATE";
+                default:
+                    // Blank lines, unknown commands and bad batch headers: let a shard word the error
+                    return call(0, message);
+            }
+        }
+
+        // The shard that owns the date in part 1. Without a good date the command is
+        // going to fail anyway, and shard 0 gives the error.
+        private int owner(Command command) {
+            LocalDate day = command.parts > 1 ? CommandParser.date(command, 1) : null;
+            return day == null ? 0 : ring.shardFor(day.toEpochDay());
+        }
+
+        private Shard shard(int index) throws IOException {
+            if (shards[index] == null) {
+                shards[index] = new Shard(ring.shard(index));
+            }
+            return shards[index];
+        }
+
+        // A shard that failed is dropped, and the next command that needs it reconnects
+        private String unavailable(int index, IOException e) {
+            if (shards[index] != null) {
+                shards[index].close();
+                shards[index] = null;
+            }
+            return "ERROR: Shard " + ring.shard(index) + " is unavailable (" + e.getMessage() + ")";
+        }
+
+        private String call(int index, String message) {
+            try {
+                Shard shard = shard(index);
+                shard.send(message);
+                shard.flush();
+                return shard.readReply();
+            } catch (IOException e) {
+                return unavailable(index, e);
+            }
+        }
+
+        // Sends the message to every shard before reading any reply, so the shards
+        // work on it at the same time, then merges their events by day and keeps the
+        // first limit. Any reply that isn't a list of events (an error) is passed on.
+        private String gather(String message, int limit) {
+            String error = null;
+            for (int i = 0; i < shards.length; i++) {
+                try {
+                    Shard shard = shard(i);
+                    shard.send(message);
+                    shard.flush();
+                } catch (IOException e) {
+                    error = unavailable(i, e);
+                }
+            }
+
+            List<ShardEvent> events = new ArrayList<>();
+            for (int i = 0; i < shards.length; i++) {
+                if (shards[i] == null) {
+                    continue;
+                }
+                try {
+                    byte[] frame = shards[i].readFrame();
+                    if (frame[0] != WireProtocol.EVENTS) {
+                        error = error != null ? error : WireProtocol.toText(frame);
+                    } else {
+                        WireProtocol.decodeEvents(frame, (day, minute, time, description)
+                                -> events.add(new ShardEvent(day, minute, time, description)));
+                    }
+                } catch (IOException e) {
+                    error = unavailable(i, e);
+                }
+            }
+            if (error != null) {
+                return error;
+            }
+            // Each day lives on one shard and comes in time order, so a stable sort by day is the whole merge
+            events.sort(Comparator.comparingInt(e -> e.day));
+
+            StringBuilder sb = new StringBuilder();
+            int take = Math.min(events.size(), limit);
+            for (int i = 0; i < take; i++) {
+                ShardEvent e = events.get(i);
+                WireProtocol.appendEvent(sb, i == 0, i == 0 || e.day != events.get(i - 1).day,
+                        e.day, e.minute, e.time, e.description);
+            }
+            return take == 0 ? "no events" : sb.toString();
+        }
+
+        // Splits the batch by owning shard, sends every part before waiting for any,
+        // and adds the replies back up. Failures are renumbered to the client's lines.
+        private String routeBatch(List<String> lines) {
+            List<List<BatchLine>> parts = new ArrayList<>();
+            for (int i = 0; i < shards.length; i++) {
+                parts.add(new ArrayList<>());
+            }
+            for (int i = 0; i < lines.size(); i++) {
+                CommandParser.parse(lines.get(i), command);
+                parts.get(owner(command)).add(new BatchLine(i, lines.get(i)));
+            }
+
+            String[] replies = new String[shards.length];
+            for (int i = 0; i < shards.length; i++) {
+                if (parts.get(i).isEmpty()) {
+                    continue;
+                }
+                try {
+                    Shard shard = shard(i);
+                    shard.send("batch; " + parts.get(i).size());
+                    for (BatchLine line : parts.get(i)) {
+                        shard.send(line.text);
+                    }
+                    shard.flush();
+                } catch (IOException e) {
+                    replies[i] = unavailable(i, e);
+                }
+            }
+
+            int applied = 0;
+            int unchanged = 0;
+            int failed = 0;
+            TreeMap<Integer, String> errors = new TreeMap<>();
+            for (int i = 0; i < shards.length; i++) {
+                List<BatchLine> part = parts.get(i);
+                if (part.isEmpty()) {
+                    continue;
+                }
+                if (replies[i] == null) {
+                    try {
+                        replies[i] = shards[i].readReply();
+                    } catch (IOException e) {
+                        replies[i] = unavailable(i, e);
+                    }
+                }
+                Matcher reply = BATCH_REPLY.matcher(replies[i]);
+                if (!reply.matches()) {
+                    // The whole part failed, e.g. the shard is down
+                    failed += part.size();
+                    for (BatchLine line : part) {
+                        errors.put(line.index + 1, replies[i]);
+                    }
+                    continue;
+                }
+                applied += Integer.parseInt(reply.group(1));
+                unchanged += Integer.parseInt(reply.group(2));
+                failed += Integer.parseInt(reply.group(3));
+                if (reply.group(4) != null) {
+                    collectErrors(reply.group(4), part, errors);
+                }
+            }
+
+            StringBuilder sb = new StringBuilder();
+            sb.append("BATCH ").append(lines.size()).append(": ").append(applied).append(" applied, ")
+              .append(unchanged).append(" unchanged, ").append(failed).append(" failed");
+            int shown = 0;
+            for (Map.Entry<Integer, String> error : errors.entrySet()) {
+                if (shown == TomBrophy_Server.BATCH_ERRORS_SHOWN) {
+                    break;
+                }
+                sb.append(shown == 0 ? " (" : "; ").append("line ").append(error.getKey()).append(": ").append(error.getValue());
+                shown++;
+            }
+            if (shown > 0) {
+                sb.append(failed > shown ? "; ...)" : ")");
+            }
+            return sb.toString();
+        }
+
+        // "line 2: msg; line 5: msg; ..." from a shard, with each line number mapped back
+        private void collectErrors(String text, List<BatchLine> part, Map<Integer, String> errors) {
+            if (text.endsWith("; ...")) {
+                text = text.substring(0, text.length() - 5);
+            }
+            Matcher m = BATCH_ERROR.matcher(text);
+            int line = -1;
+            int from = 0;
+            while (m.find()) {
+                if (line >= 0) {
+                    errors.put(line, text.substring(from, m.start()));
+                }
+                int shardLine = Integer.parseInt(m.group(1));
+                line = shardLine >= 1 && shardLine <= part.size() ? part.get(shardLine - 1).index + 1 : shardLine;
+                from = m.end();
+            }
+            if (line >= 0) {
+                errors.put(line, text.substring(from));
+            }
+        }
+
+        // The router's own connections, then each shard's stats line
+        private String stats() {
+            StringBuilder sb = new StringBuilder("STATS router shards=").append(shards.length)
+                    .append(" connections active=").append(connectionStats.activeConnections())
+                    .append(" accepted=").append(connectionStats.acceptedConnections());
+            for (int i = 0; i < shards.length; i++) {
+                String reply = call(i, "stats");
+                sb.append(" || ").append(ring.shard(i)).append(' ')
+                  .append(reply.startsWith("STATS ") ? reply.substring(6) : reply);
+            }
+            return sb.toString();
+        }
+    }
+
+    public static void main(String[] args) {
+        ServerConfig config;
+        try {
+            config = ServerConfig.fromSystemProperties();
+            if (config.localShards > 0) {
+                config.shards = startLocalShards(config, config.localShards);
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (config.shards.isEmpty()) {
+            System.err.println("Give the shards with -Deventboard.shards=host:port,host:port or start some with -Deventboard.localShards=n");
+            System.exit(1);
+        }
+        new ShardRouter(config).start();
+    }
+}
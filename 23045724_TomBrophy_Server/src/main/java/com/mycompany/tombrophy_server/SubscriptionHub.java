@@ -0,0 +1,163 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Who is subscribed to which day. After an add or remove the server publishes
+ * the day's new list reply here and it is handed to each subscriber without
+ * blocking: every connection has its own bounded outbound queue, and a
+ * connection whose queue is full is evicted (its subscriptions dropped and the
+ * connection closed) rather than making the writer wait for it.
+ *
+ * Replies carry the EventStore.version they were built from, and a day never
+ * goes back to an older version, so two writers publishing the same day at
+ * once can't leave subscribers looking at the older board.
+ *
+ * @author tombr
+ */
+public class SubscriptionHub {
+    // One change to a day, as a text line and as a whole WireProtocol frame (length
+    // included); each connection sends the one it speaks
+    public static final class Push {
+        public final String line;
+        public final byte[] frame;
+
+        public Push(String line, byte[] frame) {
+            this.line = line;
+            this.frame = frame;
+        }
+    }
+
+    // One client connection that can receive pushes
+    public interface Subscriber {
+        // Queues the push without blocking. False if the connection already has too much waiting.
+        boolean push(Push push);
+
+        // The connection was too slow and lost its subscriptions; close it
+        void evict();
+    }
+
+    private static final class Topic {
+        final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+        // Guarded by this
+        long lastVersion = -1;
+    }
+
+    private final int maxSubscriptions;
+    private final ConcurrentHashMap<Long, Topic> topics = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Subscriber, Set<Long>> daysBySubscriber = new ConcurrentHashMap<>();
+
+    private final LongAdder pushes = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public SubscriptionHub(int maxSubscriptions) {
+        this.maxSubscriptions = maxSubscriptions;
+    }
+
+    // False if the subscriber is already at eventboard.maxSubscriptions days
+    public boolean subscribe(Subscriber subscriber, LocalDate day) {
+        long key = day.toEpochDay();
+        Set<Long> days = daysBySubscriber.get(subscriber);
+        if (days == null ? maxSubscriptions < 1 : !days.contains(key) && days.size() >= maxSubscriptions) {
+            return false;
+        }
+        // The set is only made once the day is allowed, so a refused subscriber isn't counted
+        // in subscribers(). Only the subscriber's own connection gets here, so nothing races it.
+        daysBySubscriber.computeIfAbsent(subscriber, s -> ConcurrentHashMap.newKeySet()).add(key);
+        // Inside compute, so an unsubscribe dropping the last subscriber can't drop the topic under us
+        topics.compute(key, (k, topic) -> {
+            Topic t = topic != null ? topic : new Topic();
+            t.subscribers.add(subscriber);
+            return t;
+        });
+        return true;
+    }
+
+    public void unsubscribe(Subscriber subscriber, LocalDate day) {
+        long key = day.toEpochDay();
+        // Only the subscriber's own connection subscribes it, so dropping an empty set here can't race
+        daysBySubscriber.computeIfPresent(subscriber, (s, days) -> {
+            days.remove(key);
+            return days.isEmpty() ? null : days;
+        });
+        removeFromTopic(subscriber, key);
+    }
+
+    // When the connection closes
+    public void unsubscribeAll(Subscriber subscriber) {
+        Set<Long> days = daysBySubscriber.remove(subscriber);
+        if (days != null) {
+            for (long key : days) {
+                removeFromTopic(subscriber, key);
+            }
+        }
+    }
+
+    private void removeFromTopic(Subscriber subscriber, long key) {
+        topics.computeIfPresent(key, (k, topic) -> {
+            topic.subscribers.remove(subscriber);
+            return topic.subscribers.isEmpty() ? null : topic;
+        });
+    }
+
+    // Whether the subscriber is waiting on any day, so an idle timeout leaves it alone
+    public boolean isSubscribed(Subscriber subscriber) {
+        Set<Long> days = daysBySubscriber.get(subscriber);
+        return days != null && !days.isEmpty();
+    }
+
+    // Cheap check so the write path only builds a push when someone wants it
+    public boolean hasSubscribers(LocalDate day) {
+        return day != null && topics.containsKey(day.toEpochDay());
+    }
+
+    public void publish(LocalDate day, long version, Push push) {
+        Topic topic = topics.get(day.toEpochDay());
+        if (topic == null) {
+            return;
+        }
+        List<Subscriber> slow = null;
+        synchronized (topic) {
+            if (version <= topic.lastVersion) {
+                return;
+            }
+            topic.lastVersion = version;
+            for (Subscriber s : topic.subscribers) {
+                if (s.push(push)) {
+                    pushes.increment();
+                } else {
+                    if (slow == null) {
+                        slow = new ArrayList<>();
+                    }
+                    slow.add(s);
+                }
+            }
+        }
+        if (slow != null) {
+            for (Subscriber s : slow) {
+                evictions.increment();
+                unsubscribeAll(s);
+                s.evict();
+            }
+        }
+    }
+
+    public int subscribers() {
+        return daysBySubscriber.size();
+    }
+
+    public long pushes() {
+        return pushes.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+}
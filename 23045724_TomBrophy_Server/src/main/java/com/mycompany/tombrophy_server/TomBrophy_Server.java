@@ -1,372 +1,1221 @@
-package com.mycompany.tombrophy_server;
-
-import java.io.*;
-import java.net.*;
-import java.util.*;
-import java.util.concurrent.*;
-
-// Simple class to hold event data
-class Event {
-    String date;
-    String time;
-    String description;
-
-    public Event(String date, String time, String description) {
-        this.date = date.trim();
-        this.time = time.trim();
-        this.description = description.trim();
-    }
-
-    // This is used to uniquely identify an event for removal
-    @Override
-    public String toString() {
-        return String.format("%s; %s; %s", date, time, description);
-    }
-    
-    @Override
-    public boolean equals(Object o ) {
-        if (this == o) 
-            return true;
-        if (!(o instanceof Event))
-            return false;
-        Event other = (Event) o;
-        return date.equalsIgnoreCase(other.date) && time.equalsIgnoreCase(other.time) && description.equalsIgnoreCase(other.description);
-    }
-
-    @Override
-    public int hashCode() {
-        return java.util.Objects.hash(
-                date.toLowerCase(),
-                time.toLowerCase(),
-                description.toLowerCase()
-        );
-    }
-}
-
-public class TomBrophy_Server {
-    private static final int PORT = 1012; // Using a standard port for the server
-    // Thread-safe map to store events, keyed by date for easy listing
-    private static final String EVENTS_FILE = "events.txt";
-    private final Map<String, List<Event>> eventBoard = new ConcurrentHashMap<>();
-
-    public void start() {
-        System.out.println("TomBrophy_Server started on port: " + PORT);
-        
-        loadEventsFromFile();
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            while (true) {
-                // Accept new client connection and start a new thread to handle it
-                Socket clientSocket = serverSocket.accept();
-                new ClientHandler(clientSocket).start();
-            }
-        } catch (IOException e) {
-            System.err.println("Could not listen on port " + PORT);
-            System.exit(1);
-        }
-    }
-
-    private class ClientHandler extends Thread {
-        private final Socket clientSocket;
-
-        public ClientHandler(Socket socket) {
-            this.clientSocket = socket;
-            System.out.println("Client connected: " + socket.getRemoteSocketAddress());
-        }
-
-        @Override
-        public void run() {
-            try (
-                // Setup input and output streams for the client socket
-                PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
-                BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()))
-            ) {
-                String serverAddress = clientSocket.getLocalAddress().getHostAddress() + ":" + clientSocket.getLocalPort();
-                String clientAddress = clientSocket.getInetAddress().getHostAddress() + ":" + clientSocket.getPort();
-                
-                // Send welcome message to the client
-                out.println("WELCOME To EventBoard. Connected to server at " + serverAddress + ", Your address is " + clientAddress);
-
-                String clientMessage;
-                // Main loop to read messages from the client
-                while ((clientMessage = in.readLine()) != null) {
-                    String response;
-                    // Send the response back to the client
-                    try {
-                        response = processMessage(clientMessage);
-                    } catch (InvalidCommandException e) {
-                        response = "ERROR: " + e.getMessage();
-                    }
-                    
-                    out.println(response);
-                   
-                    // Check for the termination signal
-                    if ("TERMINATE".equalsIgnoreCase(response)) {
-                        break;
-                    }
-                }
-            } catch (IOException e) {
-                System.err.println("Client handler error: " + e.getMessage());
-            } finally {
-                try {
-                    clientSocket.close();
-                    System.out.println("Client disconnected: " + clientSocket.getRemoteSocketAddress());
-                } catch (IOException e) {
-                    // ignore
-                }
-            }
-        }
-
-        private String processMessage(String message) throws InvalidCommandException {
-            message = message.trim();
-            if (message == null || message.isEmpty()) {
-                throw new InvalidCommandException("ERROR: Empty message.");
-            }
-
-            // Split the message by semicolon. Use 4 to keep trailing empty strings.
-            String[] parts = message.split(";", 4);
-            String action = parts[0].trim().toLowerCase();
-
-            // 1. Handle STOP command first (Protocol-level command)
-            if ("stop".equals(action)) {
-                return "TERMINATE";
-            }
-
-            // Check for minimum parts for other commands
-            if (parts.length < 2) {
-                return "ERROR: Malformed message. Missing action or event details.";
-            }
-
-            // Extract event details
-            String date = parts.length > 1 ? parts[1].trim() : "";
-            String time = parts.length > 2 ? parts[2].trim() : "";
-            String desc = parts.length > 3 ? parts[3].trim() : "";
-
-            switch (action) {
-                case "add":
-                    // Assignment: action; date; time; description (4 fields)
-                    if (parts.length < 4) {
-                        throw new InvalidCommandException("Usage: add; date; time; description");
-                    }
-                    
-                    
-                    validateDate(date);
-                    
-                    validateTime(time);
-
-                    Event eventToAdd = new Event(date, time, desc);
-                   
-                    // Synchronized block for thread safety on the map
-                    synchronized (eventBoard) {
-                        // Get or create the list for the given date
-                        List<Event> eventsForDate = eventBoard.computeIfAbsent(date, k -> Collections.synchronizedList(new ArrayList<>()));
-                        
-                        boolean eventExists = eventsForDate.stream().anyMatch(e -> 
-                                e.date.trim().equalsIgnoreCase(eventToAdd.date.trim()) &&
-                                e.time.trim().equalsIgnoreCase(eventToAdd.time.trim()) &&
-                                e.description.trim().equalsIgnoreCase(eventToAdd.description.trim())        
-                        );
-                        
-                        if (!eventExists) {
-                            eventsForDate.add(eventToAdd);
-                            // Sort the list by time (simple string comparison for now)
-                            Collections.sort(eventsForDate, Comparator.comparing(e -> e.time));
-                        }
-                    }
-                   
-                    saveEventsToFile();
-                    
-                    // Server replies with a list of all events due on the new event's date.
-                    return formatEventList(eventBoard.get(date));
-
-                case "remove":
-                    // Assignment: action; date; time; description (4 fields)
-                    if (parts.length < 4) {
-                        throw new InvalidCommandException("Usage: remove; date; time; description");
-                    }
-                    
-                    validateDate(date);
-                    validateTime(time);
-                   
-                    //Event eventToRemove = new Event(date, time, desc);
-                    
-                    List<Event> eventsOnDate = eventBoard.get(date);
-                   
-                    if (eventsOnDate != null) {
-                        Event removedEvent = null;
-                        
-                        Iterator<Event> it = eventsOnDate.iterator();
-                        while (it.hasNext()) {
-                            Event e = it.next();
-                            if (e.date.trim().equalsIgnoreCase(date.trim()) &&
-                                e.time.trim().equalsIgnoreCase(time.trim()) &&
-                                e.description.trim().equalsIgnoreCase(desc.trim())) {
-                                
-                                removedEvent = e;
-                                it.remove();
-                                break;
-                            }
-                        }
-                        
-                        if(removedEvent == null) {
-                            return "Error: Event not found on " + date;
-                        }
-                        
-                        Collections.sort(eventsOnDate, Comparator.comparing(e -> e.time));
-                        
-                        saveEventsToFile();
-                       
-                        // Server replies with a list of all events that are still due on the date of the removed event.
-                        return formatEventList(eventsOnDate);
-                    }
-                   
-                    return "no events";
-
-                case "list":
-                    // Assignment: action; date (minimum 2 fields)
-                    if (parts.length < 2) {
-                        return "ERROR: Usage: list; date";
-                    }
-                   
-                    List<Event> listEvents = eventBoard.get(date);
-                   
-                    // Server replies with a list of all events due on that date (or "no events").
-                    return formatEventList(listEvents);
-
-                default:
-                    throw new InvalidCommandException("Invalid command: " + action);
-            }
-        }
-       
-        // Helper method to format the list of events as a string
-        private String formatEventList(List<Event> events) {
-            if (events == null || events.isEmpty()) {
-                return "no events";
-            }
-            
-            String date = events.get(0).date;
-            
-            StringBuilder sb = new StringBuilder();
-            sb.append(date).append("; ");
-            
-            for (int i = 0; i < events.size(); i++) {
-                Event e = events.get(i);
-                
-                if (i > 0) {
-                    sb.append("; ");
-                }
-                //This is to make the response from the server after the time be a comma and not a semi-colon
-                sb.append(e.time)
-                  .append(", ")
-                  .append(e.description);
-            }
-            return sb.toString();
-        }
-        
-        private void validateDate(String date) throws InvalidCommandException {
-            if (date == null || date.isEmpty()) {
-                throw new InvalidCommandException("No Date Found.");
-            }
-            
-            String[] parts = date.trim().split("\\s+");
-            if(parts.length != 3) {
-                throw new InvalidCommandException(
-                    "You entered: " + date + ". You're supposed to format the date and include a day, month and year"
-                );
-            }
-            
-            int day;
-            
-            try {
-                day = Integer.parseInt(parts[0]);
-            } catch (NumberFormatException e) {
-                throw new InvalidCommandException("You didn't enter a number. You entered: " + parts[0] + ".");
-            }
-            if (day < 1 || day > 31) {
-                throw new InvalidCommandException("The Day you entered is too high or too low. You entered: " + parts[0] + ".");
-            }
-            
-            String month = parts[1].toLowerCase(Locale.ROOT);
-            Set<String> months = new HashSet<>(Arrays.asList(
-                    "january", "february", "march", "april", "may", "june",
-                    "july", "august", "september", "october", "november", "december"
-            ));
-            if (!months.contains(month)) {
-                throw new InvalidCommandException("Month must be a full month name. You entered: " + parts[1] + ".");
-            }
-            
-            int year;
-            
-            try {
-                year = Integer.parseInt(parts[2]);
-            } catch (NumberFormatException e) {
-                throw new InvalidCommandException("Year must be a number. You entered: " + parts[2] + ".");
-            }
-            if (year < 1900 || year > 2100) {
-                throw new InvalidCommandException("Year must be between 1900 and 2100. You entered: " + parts[2] + ".");
-            }
-        }
-        
-        private void validateTime(String time) throws InvalidCommandException {
-            if (time == null || time.isEmpty()) {
-                throw new InvalidCommandException("No Time Found.");
-            }
-            
-            String t = time.toLowerCase(Locale.ROOT);
-            if (!(t.contains("am") || t.contains("pm"))) {
-                throw new InvalidCommandException(
-                        "You entered: " + time + ". You're supposed to include 'am' or 'pm'. Try again"
-                );
-            }
-        }
-    }
-    
-    private synchronized void saveEventsToFile() {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(EVENTS_FILE))) {
-            for (List<Event> events : eventBoard.values()) {
-                for (Event e : events) {
-                    writer.printf("%s; %s; %s%n", e.date, e.time, e.description);
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("Failed to save events to file: " + e.getMessage());
-        }
-    }
-    
-    private void loadEventsFromFile() {
-        File file = new File(EVENTS_FILE);
-        if (!file.exists()) {
-            return;
-        }
-        
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty())
-                    continue;
-                
-                String[] parts = line.split(";", 3);
-                if (parts.length < 3) 
-                    continue;
-                
-                String date = parts[0].trim();
-                String time = parts[1].trim();
-                String desc = parts[2].trim();
-                
-                Event e = new Event(date, time, desc);
-                
-                synchronized (eventBoard) {
-                    List<Event> list = eventBoard.computeIfAbsent(
-                            date, k -> Collections.synchronizedList(new ArrayList<>()));
-                    list.add(e);
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("Failed to load events from file: " + e.getMessage());
-        }
-        
-    }
-    public static void main(String[] args) {
-        new TomBrophy_Server().start();
-    }
+package com.mycompany.tombrophy_server;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+public final class TomBrophy_Server {
+    // Most events one upcoming query can ask for
+    static final int MAX_UPCOMING = 10_000;
+    // Events a search returns when it doesn't say
+    static final int DEFAULT_SEARCH_RESULTS = 100;
+    // Most lines one batch can carry
+    static final int MAX_BATCH = 10_000;
+    // How many failed lines a batch reply spells out
+    static final int BATCH_ERRORS_SHOWN = 10;
+    // Thread-safe store of events, keyed by the parsed date for easy listing
+    private final EventStore eventBoard;
+    private final ServerConfig config;
+    private final ConnectionStats connectionStats;
+    private final EventJournal journal;
+    private final ResponseCache listCache;
+    private final ServerMetrics metrics;
+    private final SubscriptionHub subscriptions;
+    // eventboard.writesPerSecond and readsPerSecond, checked for every command from a connection
+    private final RateLimiter rateLimiter;
+    // One permit per connection under eventboard.maxConnections, null when there is no cap
+    private final Semaphore connectionSlots;
+    private final BulkLoader bulkLoader;
+    // Days past eventboard.retentionDays, see EventArchive
+    private final EventArchive archive;
+    // At most one of these, see eventboard.replicationPort and eventboard.leader
+    private final ReplicationLeader replicationLeader;
+    private final ReplicationFollower replicationFollower;
+
+    public TomBrophy_Server() {
+        this(ServerConfig.fromSystemProperties());
+    }
+
+    public TomBrophy_Server(ServerConfig config) {
+        this.config = config;
+        this.eventBoard = new EventStore(config.search ? new SearchIndex() : null);
+        this.connectionStats = new ConnectionStats(config.mode);
+        this.listCache = new ResponseCache(config.cacheChars);
+        this.subscriptions = new SubscriptionHub(config.maxSubscriptions);
+        this.rateLimiter = new RateLimiter(config);
+        this.connectionSlots = config.maxConnections > 0 ? new Semaphore(config.maxConnections) : null;
+        this.metrics = new ServerMetrics(connectionStats, listCache, subscriptions, rateLimiter);
+        this.journal = new EventJournal(config, this::saveEventsToFile, metrics);
+        this.replicationLeader = config.replicationPort > 0 ? new ReplicationLeader(config, eventBoard, metrics) : null;
+        this.replicationFollower = !config.leader.isEmpty() ? new ReplicationFollower(this, config, metrics) : null;
+        this.bulkLoader = new BulkLoader(this, config, rateLimiter);
+        this.archive = new EventArchive(config, eventBoard);
+    }
+
+    public void start() {
+        ServerLog.setRateLimit(config.logPerSecond);
+        ServerLog.info("TomBrophy_Server started on port: " + config.port + " (" + config + ")");
+        
+        try {
+            openStore();
+        } catch (IOException e) {
+            // exit runs the shutdown hooks, and one of them flushes the log
+            ServerLog.error("Could not open journal " + config.journalFile + ": " + e.getMessage());
+            System.exit(1);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(this::closeStore, "journal-close"));
+        metrics.register(config.port);
+        startRetention();
+        startReplication();
+        startConnectionReport();
+        if (config.mode == ExecutionMode.NIO) {
+            try {
+                new NioEventBoardServer(this, config, connectionStats).run();
+            } catch (IOException e) {
+                ServerLog.error("Could not listen on port " + config.port + ": " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+
+        ExecutorService connections = newConnectionExecutor();
+        try (ServerSocket serverSocket = new ServerSocket(config.port, config.acceptBacklog)) {
+            while (true) {
+                // At eventboard.maxConnections, stop accepting until one closes. New clients
+                // wait in the listen backlog meanwhile, and past that the OS turns them away.
+                if (connectionSlots != null && !connectionSlots.tryAcquire()) {
+                    connectionStats.connectionsWaited();
+                    connectionSlots.acquireUninterruptibly();
+                }
+                // Accept new client connection and hand it to the executor for the configured mode
+                Socket clientSocket = serverSocket.accept();
+                connectionStats.connectionAccepted();
+                try {
+                    connections.execute(new ClientHandler(clientSocket));
+                } catch (RejectedExecutionException e) {
+                    rejectConnection(clientSocket);
+                    releaseConnectionSlot();
+                }
+            }
+        } catch (IOException e) {
+            ServerLog.error("Could not listen on port " + config.port);
+            System.exit(1);
+        } finally {
+            connections.shutdownNow();
+        }
+    }
+
+    // Loads events.txt and the journal and gets the journal ready for writes.
+    // start() does this first; it is separate so the store can be used without a socket.
+    void openStore() throws IOException {
+        boolean otherFormat = loadEventsFromFile();
+        journal.open();
+        if (otherFormat) {
+            // Write the configured format now, so it is the newer file from here on
+            journal.requestSnapshot();
+        }
+    }
+
+    // Folds the journal into a new snapshot soon, on the journal's writer thread
+    void requestSnapshot() {
+        journal.requestCompaction();
+    }
+
+    void closeStore() {
+        journal.close();
+    }
+
+    // Archives what is already past the horizon before any client connects, then
+    // checks again every eventboard.retentionSeconds
+    private void startRetention() {
+        if (!archive.enabled()) {
+            return;
+        }
+        archiveOldEvents();
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "retention");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::archiveOldEvents,
+                config.retentionSeconds, config.retentionSeconds, TimeUnit.SECONDS);
+    }
+
+    void archiveOldEvents() {
+        // The events left the board without journal records, so the snapshot has to catch up
+        if (archive.sweep() > 0) {
+            journal.requestSnapshot();
+        }
+    }
+
+    // Days before the retention horizon are read from the archive and can't change
+    private void checkNotArchived(LocalDate day) throws InvalidCommandException {
+        if (archive.isArchived(day)) {
+            throw new InvalidCommandException(InvalidCommandException.Kind.READ_ONLY, "Events before "
+                    + EventDates.formatDate(archive.archivedBefore()) + " are archived and can't be changed");
+        }
+    }
+
+    boolean isArchived(LocalDate day) {
+        return archive.isArchived(day);
+    }
+
+    private void startReplication() {
+        if (replicationLeader != null) {
+            journal.setListener(replicationLeader);
+            try {
+                replicationLeader.start();
+            } catch (IOException e) {
+                ServerLog.error("Could not listen for followers on port " + config.replicationPort + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        if (replicationFollower != null) {
+            replicationFollower.start();
+        }
+    }
+
+    // Follower: one record from the leader, through this server's own journal. Returns the
+    // journal seq to pass to awaitJournaled before acknowledging it, 0 if nothing changed.
+    long applyReplicated(char op, Event event) {
+        long seq = op == EventJournal.ADD ? addAndJournal(event) : op == EventJournal.REMOVE ? removeAndJournal(event) : 0;
+        if (seq > 0) {
+            publishChange(event.day(), event.date);
+        }
+        return seq;
+    }
+
+    void awaitJournaled(long seq) throws IOException {
+        if (seq > 0) {
+            journal.awaitCommitted(seq);
+        }
+    }
+
+    // Follower: makes the board hold exactly these events, for a snapshot from the leader.
+    // Returns the last journal seq like applyReplicated.
+    long replaceAll(List<Event> events) {
+        Set<Event> stale = new HashSet<>();
+        for (NavigableSet<Event> day : eventBoard.allDays()) {
+            stale.addAll(day);
+        }
+        long lastSeq = 0;
+        for (Event e : events) {
+            if (!stale.remove(e)) {
+                lastSeq = Math.max(lastSeq, applyReplicated(EventJournal.ADD, e));
+            }
+        }
+        for (Event e : stale) {
+            if (archive.isArchived(e.day())) {
+                // The leader archived it; our own sweep takes it off the board
+                continue;
+            }
+            lastSeq = Math.max(lastSeq, applyReplicated(EventJournal.REMOVE, e));
+        }
+        return lastSeq;
+    }
+
+    // Waits for the journal to have the record (unless durability is IMMEDIATE), and with
+    // SYNC replication for the followers too. The change is on the board either way, but
+    // if the journal failed first the client is told it wasn't saved.
+    void awaitCommitted(long seq) throws InvalidCommandException {
+        if (config.durability == EventJournal.Durability.FLUSHED) {
+            try {
+                journal.awaitCommitted(seq);
+            } catch (IOException e) {
+                throw new InvalidCommandException(InvalidCommandException.Kind.NOT_SAVED, e.getMessage());
+            }
+        }
+        if (replicationLeader != null) {
+            replicationLeader.awaitAcked(seq);
+        }
+    }
+
+    // Followers only serve reads
+    private void checkWritable() throws InvalidCommandException {
+        if (replicationFollower != null) {
+            throw new InvalidCommandException(InvalidCommandException.Kind.READ_ONLY,
+                    "This server is a read-only follower of " + config.leader + ", send changes to the leader");
+        }
+    }
+
+    private ExecutorService newConnectionExecutor() {
+        switch (config.mode) {
+            case VIRTUAL:
+                return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("client-", 0).factory());
+            case POOLED:
+                // Bounded pool and bounded queue, anything past that is turned away
+                // instead of piling up more threads.
+                return new ThreadPoolExecutor(config.poolSize, config.poolSize,
+                        0L, TimeUnit.MILLISECONDS,
+                        config.poolQueue == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(config.poolQueue),
+                        Thread.ofPlatform().name("client-", 0).factory(),
+                        new ThreadPoolExecutor.AbortPolicy());
+            case THREAD:
+            default:
+                return Executors.newThreadPerTaskExecutor(Thread.ofPlatform().name("client-", 0).factory());
+        }
+    }
+
+    // Admission control for POOLED mode: tell the client why before closing the socket.
+    private void rejectConnection(Socket clientSocket) {
+        connectionStats.connectionRejected();
+        try (Socket s = clientSocket) {
+            s.setSoTimeout(1000);
+            PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+            out.println("ERROR: Server busy, try again later");
+        } catch (IOException e) {
+            // ignore, the client is gone anyway
+        }
+    }
+
+    private void releaseConnectionSlot() {
+        if (connectionSlots != null) {
+            connectionSlots.release();
+        }
+    }
+
+    private void startConnectionReport() {
+        if (config.reportSeconds <= 0) {
+            return;
+        }
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-report");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(() -> ServerLog.info(report()),
+                config.reportSeconds, config.reportSeconds, TimeUnit.SECONDS);
+        // Printed directly: the log thread may already be gone by the time this hook runs
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println(report())));
+    }
+
+    private String report() {
+        return connectionStats.report() + " | " + listCache.report();
+    }
+
+    private class ClientHandler implements Runnable {
+        private final Socket clientSocket;
+        private SocketSubscriber subscriber;
+
+        public ClientHandler(Socket socket) {
+            this.clientSocket = socket;
+            ServerLog.info("Client connected: " + socket.getRemoteSocketAddress());
+        }
+
+        @Override
+        public void run() {
+            connectionStats.handlerStarted();
+            try (
+                // Setup input and output streams for the client socket
+                // No autoflush: replies to pipelined lines go out together once the input runs dry
+                PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), false);
+                BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()))
+            ) {
+                String serverAddress = clientSocket.getLocalAddress().getHostAddress() + ":" + clientSocket.getLocalPort();
+                String clientAddress = clientSocket.getInetAddress().getHostAddress() + ":" + clientSocket.getPort();
+                
+                // Send welcome message to the client
+                out.println(welcomeMessage(serverAddress, clientAddress));
+                out.flush();
+
+                String clientMessage;
+                Command command = new Command();
+                // Each reply is built here first, then written in one go; see below
+                StringBuilder reply = new StringBuilder(256);
+                subscriber = new SocketSubscriber(clientSocket, out);
+                command.subscriber = subscriber;
+                command.binaryCapable = true;
+                command.client = clientSocket.getInetAddress();
+                if (config.idleSeconds > 0) {
+                    clientSocket.setSoTimeout(config.idleSeconds * 1000);
+                }
+                // Main loop to read messages from the client
+                while ((clientMessage = nextLine(in, out)) != null) {
+                    String response;
+                    reply.setLength(0);
+                    int batchLines = batchLength(clientMessage, command);
+                    if (batchLines > 0) {
+                        // A batch header: the next batchLines lines are its commands
+                        List<String> batch = new ArrayList<>(batchLines);
+                        String line;
+                        while (batch.size() < batchLines && (line = nextLine(in, out)) != null) {
+                            batch.add(line);
+                        }
+                        response = applyBatch(clientMessage, batch, command);
+                    } else {
+                        // Not into out directly: that would need out held while the command
+                        // waits for its commit, and the pusher couldn't drain meanwhile
+                        response = handleLine(clientMessage, command, reply);
+                    }
+
+                    // The whole reply, newline and flush under one hold of out, so a push
+                    // can only come before or after it
+                    synchronized (out) {
+                        out.append(reply);
+                        if (response != null) {
+                            out.print(response);
+                        }
+                        out.println();
+                        // Only flush when the client has nothing else queued up
+                        if (!in.ready()) {
+                            out.flush();
+                        }
+                        if (command.binary) {
+                            // That was the PROTOCOL reply; pushes are frames from here on
+                            out.flush();
+                            subscriber.useFrames(new BufferedOutputStream(clientSocket.getOutputStream()));
+                        }
+                    }
+                   
+                    // Check for the termination signal
+                    if ("TERMINATE".equalsIgnoreCase(response)) {
+                        break;
+                    }
+                    if (command.binary) {
+                        serveFrames(command, out);
+                        break;
+                    }
+                }
+                out.flush();
+            } catch (IOException e) {
+                ServerLog.error("Client handler error: " + e.getMessage());
+            } finally {
+                connectionStats.handlerFinished();
+                releaseConnectionSlot();
+                if (subscriber != null) {
+                    subscriptions.unsubscribeAll(subscriber);
+                    subscriber.stop();
+                }
+                try {
+                    clientSocket.close();
+                    ServerLog.info("Client disconnected: " + clientSocket.getRemoteSocketAddress());
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        // The rest of a connection after protocol; binary: a request frame in, a reply frame out,
+        // written under the same lock as pushes. The client waited for the PROTOCOL reply, so
+        // the text reader holds nothing of the first frame.
+        private void serveFrames(Command command, PrintWriter lock) throws IOException {
+            InputStream in = new BufferedInputStream(clientSocket.getInputStream());
+            OutputStream out = subscriber.frames;
+            WireProtocol.FrameBuilder frame = new WireProtocol.FrameBuilder();
+            byte[] request;
+            while ((request = nextFrame(in, lock)) != null) {
+                String message = new String(request, StandardCharsets.UTF_8);
+                String response;
+                int batchLines = batchLength(message, command);
+                if (batchLines > 0) {
+                    List<String> batch = new ArrayList<>(batchLines);
+                    byte[] line;
+                    while (batch.size() < batchLines && (line = nextFrame(in, lock)) != null) {
+                        batch.add(new String(line, StandardCharsets.UTF_8));
+                    }
+                    String reply = applyBatch(message, batch, command);
+                    response = reply.substring(tagLength(reply));
+                    frame.start(reply).text(response);
+                } else {
+                    response = handleFrame(message, command, frame);
+                }
+                synchronized (lock) {
+                    frame.writeTo(out);
+                    if (in.available() == 0) {
+                        out.flush();
+                    }
+                }
+                if ("TERMINATE".equalsIgnoreCase(response)) {
+                    break;
+                }
+            }
+            synchronized (lock) {
+                out.flush();
+            }
+        }
+
+        // The next line, or null at the end of the input or once the connection has been
+        // idle for eventboard.idleSeconds
+        private String nextLine(BufferedReader in, PrintWriter out) throws IOException {
+            while (true) {
+                try {
+                    return in.readLine();
+                } catch (SocketTimeoutException e) {
+                    if (!closeIdle(out)) {
+                        continue;
+                    }
+                    return null;
+                }
+            }
+        }
+
+        private byte[] nextFrame(InputStream in, PrintWriter lock) throws IOException {
+            while (true) {
+                try {
+                    return WireProtocol.readFrame(in);
+                } catch (SocketTimeoutException e) {
+                    if (!closeIdle(lock)) {
+                        continue;
+                    }
+                    return null;
+                }
+            }
+        }
+
+        // The read timed out. A subscribed connection is only waiting for pushes, so it stays;
+        // anything else is told why and the input shut, so the caller reads no further.
+        // A timeout in the middle of a line or frame loses what had been read of it.
+        private boolean closeIdle(PrintWriter out) throws IOException {
+            if (subscriptions.isSubscribed(subscriber)) {
+                return false;
+            }
+            connectionStats.idleConnectionClosed();
+            String reply = "ERROR: Nothing received for " + config.idleSeconds + " seconds, closing the connection";
+            synchronized (out) {
+                OutputStream frames = subscriber.frames;
+                if (frames != null) {
+                    new WireProtocol.FrameBuilder().start("").text(reply).writeTo(frames);
+                    frames.flush();
+                } else {
+                    out.println(reply);
+                    out.flush();
+                }
+            }
+            clientSocket.shutdownInput();
+            return true;
+        }
+    }
+
+    // Pushes for a blocking-socket connection wait in a bounded queue and are written by
+    // a virtual thread of their own, between replies, so a publishing writer never blocks.
+    private final class SocketSubscriber implements SubscriptionHub.Subscriber {
+        private final Socket socket;
+        private final PrintWriter out;
+        private final BlockingQueue<SubscriptionHub.Push> queue = new ArrayBlockingQueue<>(config.pushQueue);
+        // Set under out's lock once the connection has switched to WireProtocol frames
+        private volatile OutputStream frames;
+        // Started by the first push; guarded by this
+        private Thread pusher;
+        private boolean stopped;
+
+        SocketSubscriber(Socket socket, PrintWriter out) {
+            this.socket = socket;
+            this.out = out;
+        }
+
+        void useFrames(OutputStream frames) {
+            this.frames = frames;
+        }
+
+        @Override
+        public boolean push(SubscriptionHub.Push push) {
+            if (!queue.offer(push)) {
+                return false;
+            }
+            synchronized (this) {
+                if (pusher == null && !stopped) {
+                    pusher = Thread.ofVirtual().name("push-", 0).start(this::drain);
+                }
+            }
+            return true;
+        }
+
+        private void drain() {
+            try {
+                while (true) {
+                    SubscriptionHub.Push push = queue.take();
+                    synchronized (out) {
+                        // Whichever protocol the connection speaks when the push is written
+                        OutputStream binary = frames;
+                        do {
+                            if (binary != null) {
+                                binary.write(push.frame);
+                            } else {
+                                out.println(push.line);
+                            }
+                        } while ((push = queue.poll()) != null);
+                        if (binary != null) {
+                            binary.flush();
+                        } else {
+                            out.flush();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stop() was called
+            } catch (IOException e) {
+                // The client is gone; its reading thread closes the connection
+            }
+        }
+
+        @Override
+        public void evict() {
+            ServerLog.info("Dropped slow subscriber " + socket.getRemoteSocketAddress()
+                    + " (" + config.pushQueue + " pushes waiting)");
+            try {
+                // The reading thread sees the socket close and cleans up
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+
+        synchronized void stop() {
+            stopped = true;
+            if (pusher != null) {
+                pusher.interrupt();
+            }
+        }
+    }
+
+    // Store-only add and remove for loading and journal replay, nothing is journaled.
+    // Returns false for a duplicate.
+    boolean addEvent(Event eventToAdd) {
+        return eventBoard.add(eventToAdd);
+    }
+
+    // Removes the matching event and returns it, or null if there was no match
+    Event removeEvent(String date, String time, String desc) {
+        return eventBoard.remove(new Event(date, time, desc));
+    }
+
+    String welcomeMessage(String serverAddress, String clientAddress) {
+        return "WELCOME To EventBoard. Connected to server at " + serverAddress + ", Your address is " + clientAddress;
+    }
+
+    // Runs one line of the protocol and turns a bad command into an ERROR reply
+    String handleLine(String clientMessage) {
+        return handleLine(clientMessage, new Command());
+    }
+
+    String handleLine(String clientMessage, Command command) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            String response = handleLine(clientMessage, command, sb);
+            return response != null ? sb.append(response).toString() : sb.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Same, but range and upcoming replies are written straight to out as they are
+    // read from the store, and null is returned. Every other reply is returned as before.
+    // command is scratch space the caller can reuse from line to line.
+    //
+    // A line can start with a sequence tag, "#42 list; 2 November 2025", so a client
+    // that pipelines many lines can match up the replies. The tag is written to out
+    // ahead of the reply: "#42 2 November 2025; ...".
+    String handleLine(String clientMessage, Command command, Appendable out) throws IOException {
+        int tag = tagLength(clientMessage);
+        if (tag > 0) {
+            out.append(clientMessage, 0, tag);
+            clientMessage = clientMessage.substring(tag);
+        }
+        long start = System.nanoTime();
+        try {
+            String response = processMessage(clientMessage, command, out);
+            metrics.commandFinished(command.action, System.nanoTime() - start);
+            return response;
+        } catch (InvalidCommandException e) {
+            metrics.commandFailed(command.action, e.kind(), System.nanoTime() - start);
+            return "ERROR: " + e.getMessage();
+        }
+    }
+
+    // handleLine for a connection that has switched to WireProtocol frames. The reply is
+    // left in frame: list replies are encoded from the store as they are read, anything
+    // else is a text frame. Returns the text reply like handleLine, or null for a list.
+    String handleFrame(String clientMessage, Command command, WireProtocol.FrameBuilder frame) {
+        frame.start(clientMessage);
+        int tag = tagLength(clientMessage);
+        long start = System.nanoTime();
+        try {
+            String response = processMessage(tag > 0 ? clientMessage.substring(tag) : clientMessage, command, frame);
+            metrics.commandFinished(command.action, System.nanoTime() - start);
+            if (response != null) {
+                frame.text(response);
+            }
+            return response;
+        } catch (InvalidCommandException e) {
+            metrics.commandFailed(command.action, e.kind(), System.nanoTime() - start);
+            String response = "ERROR: " + e.getMessage();
+            frame.text(response);
+            return response;
+        } catch (IOException e) {
+            // A FrameBuilder doesn't throw
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Length of a leading "#<digits> " tag, 0 if the line has none
+    static int tagLength(CharSequence line) {
+        if (line.length() < 3 || line.charAt(0) != '#') {
+            return 0;
+        }
+        int i = 1;
+        while (i < line.length() && line.charAt(i) >= '0' && line.charAt(i) <= '9') {
+            i++;
+        }
+        if (i == 1 || i >= line.length() || line.charAt(i) != ' ') {
+            return 0;
+        }
+        return i + 1;
+    }
+
+    // True for "TERMINATE" with or without a sequence tag in front
+    static boolean isTerminate(String reply) {
+        return reply != null && "TERMINATE".equalsIgnoreCase(reply.substring(tagLength(reply)));
+    }
+
+    // If the line is a well-formed "batch; n" header, how many lines follow it. Otherwise
+    // 0, and the line goes through handleLine like any other (a bad header gets its ERROR there).
+    static int batchLength(String line, Command command) {
+        CommandParser.parse(line.substring(tagLength(line)), command);
+        if (command.action != Command.Action.BATCH || command.parts != 2) {
+            return 0;
+        }
+        long n = CommandParser.parseInt(command.text, command.start[1], command.end[1]);
+        return n >= 1 && n <= MAX_BATCH ? (int) n : 0;
+    }
+
+    // Applies every add and remove in the batch, then waits for the journal once for the lot.
+    // The reply is one summary line, with the first few failures spelled out.
+    String applyBatch(String header, List<String> lines, Command command) {
+        long start = System.nanoTime();
+        int tag = tagLength(header);
+        int applied = 0;
+        int unchanged = 0;
+        int failed = 0;
+        long lastSeq = 0;
+        StringBuilder errors = new StringBuilder();
+        // Days someone is subscribed to, pushed once the whole batch is in
+        Map<LocalDate, String> touched = null;
+
+        // Every line counts against the writes limit, up to one second's worth
+        try {
+            rateLimiter.acquire(command.client, Command.Action.BATCH, lines.size());
+        } catch (InvalidCommandException e) {
+            metrics.commandFailed(Command.Action.BATCH, e.kind(), System.nanoTime() - start);
+            return header.substring(0, tag) + "ERROR: " + e.getMessage();
+        }
+
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            try {
+                checkWritable();
+                CommandParser.parse(line, command);
+                if ((command.action != Command.Action.ADD && command.action != Command.Action.REMOVE) || command.parts < 4) {
+                    throw new InvalidCommandException("Only add; date; time; description and remove; date; time; description can be batched");
+                }
+                CommandParser.validateDate(command, 1);
+                CommandParser.validateTime(command, 2);
+                Event event = new Event(command.part(1), command.part(2), command.part(3));
+                checkNotArchived(event.day());
+                long seq = command.action == Command.Action.ADD ? addAndJournal(event) : removeAndJournal(event);
+                if (seq > 0) {
+                    lastSeq = seq;
+                    applied++;
+                    if (subscriptions.hasSubscribers(event.day())) {
+                        if (touched == null) {
+                            touched = new LinkedHashMap<>();
+                        }
+                        touched.putIfAbsent(event.day(), event.date);
+                    }
+                } else {
+                    unchanged++;
+                }
+            } catch (InvalidCommandException e) {
+                failed++;
+                if (failed <= BATCH_ERRORS_SHOWN) {
+                    errors.append(errors.length() == 0 ? " (" : "; ")
+                          .append("line ").append(i + 1).append(": ").append(e.getMessage());
+                }
+            }
+        }
+        String notSaved = null;
+        if (lastSeq > 0) {
+            try {
+                awaitCommitted(lastSeq);
+            } catch (InvalidCommandException e) {
+                notSaved = e.getMessage();
+            }
+        }
+        if (touched != null) {
+            touched.forEach(this::publishChange);
+        }
+        if (notSaved != null) {
+            metrics.commandFailed(Command.Action.BATCH, InvalidCommandException.Kind.NOT_SAVED, System.nanoTime() - start);
+            return header.substring(0, tag) + "ERROR: " + notSaved;
+        }
+        if (errors.length() > 0) {
+            errors.append(failed > BATCH_ERRORS_SHOWN ? "; ...)" : ")");
+        }
+        metrics.commandFinished(Command.Action.BATCH, System.nanoTime() - start);
+        return header.substring(0, tag) + "BATCH " + lines.size() + ": " + applied + " applied, "
+                + unchanged + " unchanged, " + failed + " failed" + errors;
+    }
+
+    // Adds the event and queues its journal record under the day's lock, so the journal sees
+    // changes to a day in the same order as the store. Returns the record's sequence number
+    // to wait on, or 0 if the event was already there.
+    long addAndJournal(Event event) {
+        Lock lock = eventBoard.lockFor(event);
+        lock.lock();
+        try {
+            return eventBoard.add(event) ? journal.append(EventJournal.ADD, event) : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Same for remove: 0 if nothing matched the probe
+    long removeAndJournal(Event probe) {
+        Lock lock = eventBoard.lockFor(probe);
+        lock.lock();
+        try {
+            Event removed = eventBoard.remove(probe);
+            return removed != null ? journal.append(EventJournal.REMOVE, removed) : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    String processMessage(String message) throws InvalidCommandException {
+        StringBuilder sb = new StringBuilder();
+        try {
+            String response = processMessage(message, new Command(), sb);
+            return response != null ? response : sb.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    String processMessage(String message, Command command, Appendable out) throws InvalidCommandException, IOException {
+        CommandParser.parse(message, command);
+        if (command.parts == 0) {
+            throw new InvalidCommandException(InvalidCommandException.Kind.EMPTY, "ERROR: Empty message.");
+        }
+
+        // 1. Handle STOP command first (Protocol-level command)
+        if (command.action == Command.Action.STOP) {
+            return "TERMINATE";
+        }
+        rateLimiter.acquire(command.client, command.action, 1);
+        if (command.action == Command.Action.STATS) {
+            return metrics.summary();
+        }
+
+        // Check for minimum parts for other commands
+        if (command.parts < 2) {
+            return "ERROR: Malformed message. Missing action or event details.";
+        }
+
+        switch (command.action) {
+            case ADD:
+                checkWritable();
+                // Assignment: action; date; time; description (4 fields)
+                if (command.parts < 4) {
+                    throw new InvalidCommandException("Usage: add; date; time; description");
+                }
+                
+                CommandParser.validateDate(command, 1);
+                CommandParser.validateTime(command, 2);
+
+                Event eventToAdd = new Event(command.part(1), command.part(2), command.part(3));
+                checkNotArchived(eventToAdd.day());
+               
+                // Only adds and removes on the same day queue up behind each other,
+                // and the wait for the journal happens after the day's lock is let go.
+                long addSeq = addAndJournal(eventToAdd);
+                if (addSeq > 0) {
+                    try {
+                        awaitCommitted(addSeq);
+                    } finally {
+                        // On the board whether or not it was saved
+                        publishChange(eventToAdd.day(), eventToAdd.date);
+                    }
+                }
+                
+                // Server replies with a list of all events due on the new event's date.
+                return replyDay(eventToAdd.day(), out);
+
+            case REMOVE:
+                checkWritable();
+                // Assignment: action; date; time; description (4 fields)
+                if (command.parts < 4) {
+                    throw new InvalidCommandException("Usage: remove; date; time; description");
+                }
+                
+                CommandParser.validateDate(command, 1);
+                CommandParser.validateTime(command, 2);
+               
+                LocalDate removeDay = CommandParser.date(command, 1);
+                checkNotArchived(removeDay);
+               
+                if (eventBoard.eventsOn(removeDay) != null) {
+                    Event probe = new Event(command.part(1), command.part(2), command.part(3));
+                    long removeSeq = removeAndJournal(probe);
+                    
+                    if(removeSeq == 0) {
+                        return "Error: Event not found on " + probe.date;
+                    }
+                    
+                    try {
+                        awaitCommitted(removeSeq);
+                    } finally {
+                        publishChange(removeDay, probe.date);
+                    }
+                   
+                    // Server replies with a list of all events that are still due on the date of the removed event.
+                    return replyDay(removeDay, out);
+                }
+               
+                return noEvents(out);
+
+            case LIST:
+                // Server replies with a list of all events due on that date (or "no events").
+                return replyDay(CommandParser.date(command, 1), out);
+
+            case RANGE:
+                // range; from; to (both dates included)
+                if (command.parts < 3) {
+                    throw new InvalidCommandException("Usage: range; from; to");
+                }
+                CommandParser.validateDate(command, 1);
+                CommandParser.validateDate(command, 2);
+                LocalDate from = CommandParser.date(command, 1);
+                LocalDate to = CommandParser.date(command, 2);
+                if (from.isAfter(to)) {
+                    throw new InvalidCommandException(InvalidCommandException.Kind.BAD_DATE, "The range starts after it ends. You entered: " + command.part(1) + " to " + command.part(2) + ".");
+                }
+                writeDays(eventBoard.range(from, to), null, Integer.MAX_VALUE, out);
+                return null;
+
+            case UPCOMING:
+                // upcoming; n - the next n events from now on
+                long count = CommandParser.parseInt(command.text, command.start[1], command.end[1]);
+                if (count == CommandParser.NOT_A_NUMBER) {
+                    throw new InvalidCommandException("Usage: upcoming; n. You entered: " + command.part(1) + ".");
+                }
+                if (count < 1 || count > MAX_UPCOMING) {
+                    throw new InvalidCommandException("n must be between 1 and " + MAX_UPCOMING + ". You entered: " + command.part(1) + ".");
+                }
+                LocalDateTime now = LocalDateTime.now();
+                writeDays(eventBoard.from(now.toLocalDate()), now, (int) count, out);
+                return null;
+
+            case BULKLOAD:
+                // bulkload; file or URL - see BulkLoader
+                checkWritable();
+                return bulkLoader.load(command.part(1), command.client);
+
+            case SEARCH:
+                // search; words[; n] - events with words starting with every one of them, by date
+                if (command.isBlank(1)) {
+                    throw new InvalidCommandException("Usage: search; words; n (n is optional, " + DEFAULT_SEARCH_RESULTS + " if left out)");
+                }
+                long results = command.isBlank(2) ? DEFAULT_SEARCH_RESULTS
+                        : CommandParser.parseInt(command.text, command.start[2], command.end[2]);
+                if (results < 1 || results > MAX_UPCOMING) {
+                    throw new InvalidCommandException("n must be between 1 and " + MAX_UPCOMING + ". You entered: " + command.part(2) + ".");
+                }
+                if (eventBoard.index() == null) {
+                    throw new InvalidCommandException("Search is turned off on this server (eventboard.search=false)");
+                }
+                writeEvents(eventBoard.index().search(command.part(1), (int) results), out);
+                return null;
+
+            case SUBSCRIBE:
+                // subscribe; date - the day's list now, then a PUSH line after every change to it
+                if (command.subscriber == null) {
+                    throw new InvalidCommandException("subscribe isn't available on this connection");
+                }
+                CommandParser.validateDate(command, 1);
+                LocalDate subscribeDay = CommandParser.date(command, 1);
+                if (!subscriptions.subscribe(command.subscriber, subscribeDay)) {
+                    throw new InvalidCommandException("You can subscribe to at most " + config.maxSubscriptions + " days at once.");
+                }
+                return replyDay(subscribeDay, out);
+
+            case UNSUBSCRIBE:
+                CommandParser.validateDate(command, 1);
+                if (command.subscriber != null) {
+                    subscriptions.unsubscribe(command.subscriber, CommandParser.date(command, 1));
+                }
+                return "UNSUBSCRIBED " + command.part(1);
+
+            case PROTOCOL:
+                // protocol; binary - WireProtocol frames from the next request on
+                if (!"binary".equalsIgnoreCase(command.part(1))) {
+                    throw new InvalidCommandException("Usage: protocol; binary (text is the default, and a binary connection stays binary)");
+                }
+                if (!command.binaryCapable) {
+                    throw new InvalidCommandException("The binary protocol isn't available on this connection");
+                }
+                command.binary = true;
+                return WireProtocol.UPGRADED;
+
+            case BATCH:
+                // Only gets here when the header was no good, see batchLength
+                throw new InvalidCommandException("Usage: batch; n followed by n add or remove lines (n from 1 to " + MAX_BATCH + ")");
+
+            default:
+                throw new InvalidCommandException(InvalidCommandException.Kind.UNKNOWN_COMMAND, "Invalid command: " + command.part(0).toLowerCase());
+        }
+    }
+   
+    SubscriptionHub subscriptions() {
+        return subscriptions;
+    }
+
+    // Pushes the day's list to its subscribers as "PUSH <list reply>", or "PUSH <date>; no events",
+    // and as a PUSH frame for binary connections. The version is read before the list, like
+    // listDay, so a push is never older than it says.
+    void publishChange(LocalDate day, String dateText) {
+        if (!subscriptions.hasSubscribers(day)) {
+            return;
+        }
+        long version = eventBoard.version(day);
+        String list = listDay(day);
+        WireProtocol.FrameBuilder frame = new WireProtocol.FrameBuilder().startPush(day);
+        try {
+            Collection<Event> events = eventsForList(day);
+            if (events != null) {
+                for (Event e : events) {
+                    frame.event(e);
+                }
+            }
+        } catch (IOException e) {
+            // listDay has already said what went wrong; the frame goes out empty
+        }
+        subscriptions.publish(day, version, new SubscriptionHub.Push(
+                "PUSH " + ("no events".equals(list) ? dateText + "; no events" : list), frame.toBytes()));
+    }
+
+    // The list reply for a day as text, or for a binary connection straight into its frame
+    // (and null returned, like the other replies written to out)
+    private String replyDay(LocalDate day, Appendable out) throws IOException {
+        if (!(out instanceof WireProtocol.FrameBuilder frame)) {
+            return listDay(day);
+        }
+        Collection<Event> events = eventsForList(day);
+        if (events == null || events.isEmpty()) {
+            frame.noEvents();
+        } else {
+            for (Event e : events) {
+                frame.event(e);
+            }
+        }
+        return null;
+    }
+
+    // "no events" as a reply, which a binary connection gets as an empty event list
+    private static String noEvents(Appendable out) {
+        if (out instanceof WireProtocol.FrameBuilder frame) {
+            frame.noEvents();
+            return null;
+        }
+        return "no events";
+    }
+
+    // What a list of the day shows: the board's events, and for an archived day the archive's too
+    private Collection<Event> eventsForList(LocalDate day) throws IOException {
+        NavigableSet<Event> onBoard = eventBoard.eventsOn(day);
+        return archive.isArchived(day) ? archive.eventsOn(day, onBoard) : onBoard;
+    }
+
+    // The list reply for a day, from the cache when nothing on the day has changed since
+    // it was built. Archived days are read from the archive, which keeps recent months in memory.
+    // The version is read before the day so a change made while the reply is
+    // being built leaves it stale rather than cached as current.
+    String listDay(LocalDate day) {
+        if (archive.isArchived(day)) {
+            try {
+                return formatEventList(eventsForList(day));
+            } catch (IOException e) {
+                ServerLog.error("Could not read the archive for " + day + ": " + e.getMessage());
+                return "ERROR: Could not read the archive for " + EventDates.formatDate(day);
+            }
+        }
+        if (day == null || !listCache.enabled()) {
+            return formatEventList(eventBoard.eventsOn(day));
+        }
+        long version = eventBoard.version(day);
+        String response = listCache.get(day, version);
+        if (response == null) {
+            response = formatEventList(eventBoard.eventsOn(day));
+            listCache.put(day, version, response);
+        }
+        return response;
+    }
+
+    // Helper method to format the list of events as a string
+    String formatEventList(Collection<Event> events) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            if (appendDay(sb, events, null, Integer.MAX_VALUE, "") == 0) {
+                return "no events";
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    // Streams several days as "date; time, desc; time, desc | date; time, desc",
+    // stopping after limit events. Events before notBefore are skipped.
+    private void writeDays(Collection<NavigableSet<Event>> days, LocalDateTime notBefore, int limit, Appendable out) throws IOException {
+        int written = 0;
+        for (NavigableSet<Event> events : days) {
+            if (written >= limit) {
+                break;
+            }
+            written += appendDay(out, events, notBefore, limit - written, written > 0 ? " | " : "");
+        }
+        if (written == 0) {
+            String none = noEvents(out);
+            if (none != null) {
+                out.append(none);
+            }
+        }
+    }
+
+    // Writes events already in date order in the same format, a new day at each change of date
+    private void writeEvents(List<Event> events, Appendable out) throws IOException {
+        int from = 0;
+        while (from < events.size()) {
+            int to = from + 1;
+            while (to < events.size() && events.get(to).epochDay == events.get(from).epochDay) {
+                to++;
+            }
+            appendDay(out, events.subList(from, to), null, Integer.MAX_VALUE, from > 0 ? " | " : "");
+            from = to;
+        }
+        if (events.isEmpty()) {
+            String none = noEvents(out);
+            if (none != null) {
+                out.append(none);
+            }
+        }
+    }
+
+    // Appends one day in the list reply format, after the separator if it wrote anything,
+    // and returns how many events it wrote. A binary connection's frame gets the events as they are.
+    private int appendDay(Appendable out, Collection<Event> events, LocalDateTime notBefore, int limit, String separator) throws IOException {
+        if (events == null) {
+            return 0;
+        }
+        int written = 0;
+        for (Event e : events) {
+            if (written >= limit) {
+                break;
+            }
+            if (notBefore != null && e.epochDay == notBefore.toLocalDate().toEpochDay()
+                    && e.minuteOfDay < notBefore.getHour() * 60 + notBefore.getMinute()) {
+                continue;
+            }
+            if (out instanceof WireProtocol.FrameBuilder frame) {
+                frame.event(e);
+                written++;
+                continue;
+            }
+            if (written == 0) {
+                out.append(separator).append(e.date).append("; ");
+            } else {
+                out.append("; ");
+            }
+            //This is to make the response from the server after the time be a comma and not a semi-colon
+            out.append(e.time)
+               .append(", ")
+               .append(e.description);
+            written++;
+        }
+        return written;
+    }
+    
+    void validateDate(String date) throws InvalidCommandException {
+        if (date == null) {
+            throw new InvalidCommandException(InvalidCommandException.Kind.BAD_DATE, "No Date Found.");
+        }
+        CommandParser.validateDate(date, 0, date.length());
+    }
+    
+    void validateTime(String time) throws InvalidCommandException {
+        if (time == null) {
+            throw new InvalidCommandException(InvalidCommandException.Kind.BAD_TIME, "No Time Found.");
+        }
+        CommandParser.validateTime(time, 0, time.length());
+    }
+    
+    // Writes a full snapshot of the board in the configured format. It goes to a temp
+    // file first and is renamed into place so a crash mid-write leaves the old snapshot intact.
+    synchronized void saveEventsToFile() throws IOException {
+        if (config.snapshotFormat == EventSnapshot.Format.BINARY) {
+            EventSnapshot.writeBinary(Paths.get(config.snapshotFile), eventBoard.allDays());
+        } else {
+            EventSnapshot.writeText(Paths.get(config.eventsFile), eventBoard.allDays());
+        }
+    }
+    
+    // Startup: load the last snapshot, then replay the journal written since it was taken.
+    // Returns true if the snapshot was in the other format than the configured one.
+    boolean loadEventsFromFile() {
+        Path snapshot = newestSnapshot();
+        boolean otherFormat = !snapshot.equals(configuredSnapshot());
+        if (Files.exists(snapshot)) {
+            long start = System.nanoTime();
+            try {
+                int loaded = EventSnapshot.read(snapshot, this::addEvent);
+                ServerLog.info("Loaded " + loaded + " events from " + snapshot
+                        + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            } catch (IOException e) {
+                ServerLog.error("Failed to load events from file: " + e.getMessage());
+            }
+        }
+
+        try {
+            int replayed = journal.replay(this::addEvent, e -> removeEvent(e.date, e.time, e.description));
+            if (replayed > 0) {
+                ServerLog.info("Replayed " + replayed + " journal records from " + config.journalFile);
+            }
+        } catch (IOException e) {
+            ServerLog.error("Failed to replay journal: " + e.getMessage());
+        }
+        return otherFormat;
+    }
+
+    private Path configuredSnapshot() {
+        return Paths.get(config.snapshotFormat == EventSnapshot.Format.BINARY ? config.snapshotFile : config.eventsFile);
+    }
+
+    // The newer of eventsFile and snapshotFile, whatever the configured format. Compaction
+    // only writes the configured one, so after eventboard.snapshotFormat is switched the
+    // file the old setting wrote is the one the journal follows on from.
+    private Path newestSnapshot() {
+        Path configured = configuredSnapshot();
+        Path other = Paths.get(config.snapshotFormat == EventSnapshot.Format.BINARY ? config.eventsFile : config.snapshotFile);
+        if (!Files.exists(other)) {
+            return configured;
+        }
+        boolean both = Files.exists(configured);
+        try {
+            if (both && Files.getLastModifiedTime(other).compareTo(Files.getLastModifiedTime(configured)) <= 0) {
+                return configured;
+            }
+        } catch (IOException e) {
+            return configured;
+        }
+        ServerLog.info("Loading " + other + (both ? ", it is newer than " + configured : "")
+                + "; the next snapshot is written as " + config.snapshotFormat + " to " + configured);
+        return other;
+    }
+
+    public static void main(String[] args) {
+        new TomBrophy_Server().start();
+    }
 }
\ No newline at end of file
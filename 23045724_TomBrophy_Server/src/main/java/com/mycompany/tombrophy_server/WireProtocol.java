@@ -0,0 +1,441 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.time.*;
+import java.util.*;
+
+/**
+ * The binary framing a connection can switch to instead of text lines. After
+ * the WELCOME banner the client sends "protocol; binary", reads the text reply
+ * "PROTOCOL binary", and from then on both sides send frames: a varint length
+ * and then that many bytes. The client must wait for that reply before its
+ * first frame. Text stays the default; the connection is binary until it closes.
+ *
+ * A request frame is one command line in UTF-8, the same text that would have
+ * been sent as a line, so batches and sequence tags work as before. A reply
+ * frame is a type byte, the sequence tag (a varint length and its digits, empty
+ * when the request had none) and a body:
+ *
+ *   TEXT   ('T')  any reply that isn't a list of events, in UTF-8
+ *   EVENTS ('E')  a list reply; an empty body is "no events"
+ *   PUSH   ('P')  the subscribed day as a varint epoch day, then its events
+ *
+ * Events follow each other in date order, each a zigzag varint of its epoch
+ * day minus the one before it (0 for the rest of a day; the first is relative
+ * to 0, or to the day of a PUSH), a varint minute of the day and the
+ * description (a varint length, UTF-8). A time that isn't a time of day goes
+ * as minute 1440 followed by its text. There are no date or time strings and
+ * no separators: toText rebuilds the text protocol's reply with EventDates,
+ * which spells dates and times the one way the board stores them.
+ *
+ * @author tombr
+ */
+public final class WireProtocol {
+    public static final String UPGRADE = "protocol; binary";
+    public static final String UPGRADED = "PROTOCOL binary";
+
+    static final byte TEXT = 'T';
+    static final byte EVENTS = 'E';
+    static final byte PUSH = 'P';
+
+    // Longest frame either side will read, anything longer means the stream is out of step
+    public static final int MAX_FRAME = 16 << 20;
+
+    // What decodeEvents hands over for each event in a list or push
+    public interface EventSink {
+        void event(int epochDay, int minuteOfDay, String time, String description);
+    }
+
+    private WireProtocol() {
+    }
+
+    // Writes one command line as a request frame
+    public static void writeRequest(OutputStream out, String line) throws IOException {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    // The next frame's bytes without its length, or null at the end of the stream
+    public static byte[] readFrame(InputStream in) throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return null;
+                }
+                throw new EOFException("The connection closed in the middle of a frame");
+            }
+            if (shift > 28) {
+                throw new IOException("Bad frame length");
+            }
+            length |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length < 0 || length > MAX_FRAME) {
+            throw new IOException("Frame of " + length + " bytes is too long");
+        }
+        byte[] frame = in.readNBytes(length);
+        if (frame.length < length) {
+            throw new EOFException("The connection closed in the middle of a frame");
+        }
+        return frame;
+    }
+
+    public static boolean isPush(byte[] frame) {
+        return frame.length > 0 && frame[0] == PUSH;
+    }
+
+    // The reply exactly as the text protocol would have sent it, "#7 " tag and "PUSH " included
+    public static String toText(byte[] frame) throws IOException {
+        Reader r = new Reader(frame);
+        byte type = r.type();
+        StringBuilder sb = new StringBuilder(frame.length * 2);
+        String tag = r.string();
+        if (!tag.isEmpty()) {
+            sb.append('#').append(tag).append(' ');
+        }
+        switch (type) {
+            case TEXT:
+                return sb.append(r.rest()).toString();
+            case PUSH:
+                int day = r.zigzag();
+                sb.append("PUSH ");
+                if (!r.more()) {
+                    return sb.append(EventDates.formatDate(LocalDate.ofEpochDay(day))).append("; no events").toString();
+                }
+                appendEvents(r, day, sb);
+                return sb.toString();
+            case EVENTS:
+                if (!r.more()) {
+                    return sb.append("no events").toString();
+                }
+                appendEvents(r, 0, sb);
+                return sb.toString();
+            default:
+                throw new IOException("Unknown frame type " + type);
+        }
+    }
+
+    // "date; time, desc; time, desc | date; ...", a new date at each change of day
+    private static void appendEvents(Reader r, int day, StringBuilder sb) throws IOException {
+        boolean first = true;
+        while (r.more()) {
+            int delta = r.zigzag();
+            day += delta;
+            int minute = r.varint();
+            String time = minute == EventDates.UNKNOWN_MINUTE ? r.string() : null;
+            appendEvent(sb, first, first || delta != 0, day, minute, time, r.string());
+            first = false;
+        }
+    }
+
+    // One event of a list reply as the text protocol spells it, led by its date when it
+    // starts a day. time is only needed for minute UNKNOWN_MINUTE, as in EventSink.
+    static void appendEvent(StringBuilder sb, boolean first, boolean newDay, int day, int minute,
+            String time, String description) {
+        if (newDay) {
+            if (!first) {
+                sb.append(" | ");
+            }
+            sb.append(EventDates.formatDate(LocalDate.ofEpochDay(day))).append("; ");
+        } else {
+            sb.append("; ");
+        }
+        sb.append(minute == EventDates.UNKNOWN_MINUTE ? time : EventDates.formatTime(minute))
+          .append(", ").append(description);
+    }
+
+    // The events in a list or push frame, returns how many there were
+    public static int decodeEvents(byte[] frame, EventSink sink) throws IOException {
+        Reader r = new Reader(frame);
+        byte type = r.type();
+        r.string();
+        if (type != EVENTS && type != PUSH) {
+            return 0;
+        }
+        int day = type == PUSH ? r.zigzag() : 0;
+        int count = 0;
+        while (r.more()) {
+            day += r.zigzag();
+            int minute = r.varint();
+            String time = minute == EventDates.UNKNOWN_MINUTE ? r.string() : null;
+            sink.event(day, minute, time, r.string());
+            count++;
+        }
+        return count;
+    }
+
+    static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    // Reads a reply frame front to back
+    private static final class Reader {
+        private final byte[] bytes;
+        private int pos;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        byte type() throws IOException {
+            if (bytes.length == 0) {
+                throw new IOException("Empty frame");
+            }
+            return bytes[pos++];
+        }
+
+        boolean more() {
+            return pos < bytes.length;
+        }
+
+        int varint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift <= 28; shift += 7) {
+                if (pos >= bytes.length) {
+                    throw new IOException("Frame ends inside a number");
+                }
+                int b = bytes[pos++];
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Bad number in frame");
+        }
+
+        int zigzag() throws IOException {
+            int n = varint();
+            return (n >>> 1) ^ -(n & 1);
+        }
+
+        String string() throws IOException {
+            int length = varint();
+            if (length < 0 || length > bytes.length - pos) {
+                throw new IOException("Frame ends inside a string");
+            }
+            String s = new String(bytes, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        String rest() {
+            String s = new String(bytes, pos, bytes.length - pos, StandardCharsets.UTF_8);
+            pos = bytes.length;
+            return s;
+        }
+    }
+
+    /**
+     * Builds one reply frame. A connection keeps one and starts it again for
+     * every reply. It is an Appendable so text replies can be written into it
+     * where the text protocol writes to its output; events go in through event()
+     * and are encoded straight from the store, without building the text.
+     */
+    static final class FrameBuilder implements Appendable {
+        private byte[] body = new byte[256];
+        // Type byte and tag at the front of body, then the rest
+        private int length;
+        private int headerLength;
+        private byte type;
+        private int lastDay;
+
+        // A TEXT frame for a reply to this line, carrying its "#n " tag if it has one
+        FrameBuilder start(CharSequence line) {
+            int tag = TomBrophy_Server.tagLength(line);
+            length = 0;
+            put(TEXT);
+            if (tag > 0) {
+                putString(line.subSequence(1, tag - 1));
+            } else {
+                put((byte) 0);
+            }
+            headerLength = length;
+            type = TEXT;
+            return this;
+        }
+
+        // A PUSH frame for the day, untagged
+        FrameBuilder startPush(LocalDate day) {
+            length = 0;
+            put(PUSH);
+            put((byte) 0);
+            headerLength = length;
+            type = PUSH;
+            lastDay = (int) day.toEpochDay();
+            putZigzag(lastDay);
+            return this;
+        }
+
+        // Turns a TEXT frame with nothing in it yet into an empty event list
+        void noEvents() {
+            if (type == TEXT && length == headerLength) {
+                type = EVENTS;
+                body[0] = EVENTS;
+                lastDay = 0;
+            }
+        }
+
+        void event(Event e) {
+            noEvents();
+            putZigzag(e.epochDay - lastDay);
+            lastDay = e.epochDay;
+            putVarint(e.minuteOfDay);
+            if (e.minuteOfDay == EventDates.UNKNOWN_MINUTE) {
+                putString(e.time);
+            }
+            putString(e.description);
+        }
+
+        // Replaces whatever the frame holds with a text reply, keeping the tag
+        FrameBuilder text(CharSequence reply) {
+            length = headerLength;
+            type = TEXT;
+            body[0] = TEXT;
+            return append(reply);
+        }
+
+        boolean isEvents() {
+            return type != TEXT;
+        }
+
+        @Override
+        public FrameBuilder append(CharSequence csq) {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public FrameBuilder append(CharSequence csq, int start, int end) {
+            putUtf8(csq, start, end);
+            return this;
+        }
+
+        @Override
+        public FrameBuilder append(char c) {
+            putUtf8(String.valueOf(c), 0, 1);
+            return this;
+        }
+
+        // Length and frame, as one write
+        void writeTo(OutputStream out) throws IOException {
+            writeVarint(out, length);
+            out.write(body, 0, length);
+        }
+
+        ByteBuffer toByteBuffer() {
+            ByteBuffer buffer = ByteBuffer.allocate(varintSize(length) + length);
+            int value = length;
+            while ((value & ~0x7f) != 0) {
+                buffer.put((byte) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+            buffer.put(body, 0, length);
+            buffer.flip();
+            return buffer;
+        }
+
+        byte[] toBytes() {
+            return toByteBuffer().array();
+        }
+
+        private void put(byte b) {
+            ensure(1);
+            body[length++] = b;
+        }
+
+        private void putVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7f) != 0) {
+                body[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            body[length++] = (byte) value;
+        }
+
+        private void putZigzag(int value) {
+            putVarint((value << 1) ^ (value >> 31));
+        }
+
+        private void putString(CharSequence s) {
+            putVarint(utf8Length(s));
+            putUtf8(s, 0, s.length());
+        }
+
+        private void putUtf8(CharSequence s, int from, int to) {
+            ensure((to - from) * 3);
+            for (int i = from; i < to; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    body[length++] = (byte) c;
+                } else if (c < 0x800) {
+                    body[length++] = (byte) (0xc0 | c >> 6);
+                    body[length++] = (byte) (0x80 | c & 0x3f);
+                } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    body[length++] = (byte) (0xf0 | cp >> 18);
+                    body[length++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                    body[length++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                    body[length++] = (byte) (0x80 | cp & 0x3f);
+                } else if (Character.isSurrogate(c)) {
+                    // A lone surrogate, written as '?' like String.getBytes does
+                    body[length++] = '?';
+                } else {
+                    body[length++] = (byte) (0xe0 | c >> 12);
+                    body[length++] = (byte) (0x80 | c >> 6 & 0x3f);
+                    body[length++] = (byte) (0x80 | c & 0x3f);
+                }
+            }
+        }
+
+        // Bytes putUtf8 writes for the text
+        private static int utf8Length(CharSequence s) {
+            int n = s.length();
+            int bytes = n;
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x800) {
+                    if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                        // 4 bytes for the pair
+                        bytes += 2;
+                        i++;
+                    } else if (!Character.isSurrogate(c)) {
+                        bytes += 2;
+                    }
+                } else if (c >= 0x80) {
+                    bytes++;
+                }
+            }
+            return bytes;
+        }
+
+        private void ensure(int more) {
+            if (length + more > body.length) {
+                body = Arrays.copyOf(body, Math.max(body.length * 2, length + more));
+            }
+        }
+    }
+}
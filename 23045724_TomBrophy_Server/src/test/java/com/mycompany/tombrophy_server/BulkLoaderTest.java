@@ -0,0 +1,158 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * bulkload from a file in eventboard.bulkloadDir: the good lines land on the
+ * board (and survive a restart), the bad ones are counted and reported, and
+ * nothing outside the directory can be named. URLs are only fetched when
+ * eventboard.bulkloadUrls allows them.
+ *
+ * @author tombr
+ */
+class BulkLoaderTest {
+    @TempDir
+    Path dir;
+
+    private ServerConfig config() {
+        ServerConfig config = new ServerConfig();
+        config.eventsFile = dir.resolve("events.txt").toString();
+        config.journalFile = dir.resolve("events.journal").toString();
+        config.snapshotFile = dir.resolve("events.snap").toString();
+        config.bulkloadDir = dir.resolve("load").toString();
+        return config;
+    }
+
+    @Test
+    void loadsAFileFromTheLoadDirectory() throws Exception {
+        Path load = Files.createDirectories(dir.resolve("load"));
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            lines.add((1 + i % 20) + " March 2031; " + (1 + i % 12) + " pm; Loaded " + i);
+        }
+        lines.add("");
+        lines.add("not a line");
+        lines.add("31 February 2031; 6 pm; No such day");
+        lines.add("1 March 2031; 1 pm; Loaded 0");
+        Files.write(load.resolve("march.txt"), lines, StandardCharsets.UTF_8);
+
+        TomBrophy_Server server = new TomBrophy_Server(config());
+        server.openStore();
+        String reply = server.handleLine("bulkload; march.txt");
+        assertTrue(reply.startsWith("BULKLOAD march.txt: 2500 added, 1 unchanged, 2 skipped in "), reply);
+        assertTrue(reply.contains("line 2502: "), reply);
+        assertTrue(reply.contains("line 2503: "), reply);
+
+        String day = server.handleLine("list; 1 March 2031");
+        assertTrue(day.startsWith("1 March 2031; 1 pm, Loaded 0; "), day);
+        assertEquals(125, day.split(", Loaded ").length - 1, day);
+
+        TomBrophy_Server restarted = new TomBrophy_Server(config());
+        restarted.openStore();
+        assertEquals(day, restarted.handleLine("list; 1 March 2031"));
+    }
+
+    @Test
+    void refusesFilesOutsideTheLoadDirectory() throws Exception {
+        Files.createDirectories(dir.resolve("load"));
+        Files.writeString(dir.resolve("outside.txt"), "2 March 2031; 1 pm; Not allowed\n");
+
+        TomBrophy_Server server = new TomBrophy_Server(config());
+        server.openStore();
+        for (String source : List.of("../outside.txt", "sub/../../outside.txt", dir.resolve("outside.txt").toString())) {
+            String reply = server.handleLine("bulkload; " + source);
+            assertTrue(reply.contains("Files to load must be in"), source + ": " + reply);
+        }
+        assertTrue(server.handleLine("bulkload; missing.txt").contains("No such file: missing.txt"));
+        assertEquals("no events", server.handleLine("list; 2 March 2031"));
+    }
+
+    @Test
+    void fileLoadingCanBeTurnedOff() throws Exception {
+        ServerConfig config = config();
+        config.bulkloadDir = "";
+        TomBrophy_Server server = new TomBrophy_Server(config);
+        server.openStore();
+        String reply = server.handleLine("bulkload; march.txt");
+        assertTrue(reply.contains("Loading files is turned off"), reply);
+    }
+
+    @Test
+    void urlLoadingIsOffUnlessAllowed() throws Exception {
+        TomBrophy_Server server = new TomBrophy_Server(config());
+        server.openStore();
+        String reply = server.handleLine("bulkload; http://127.0.0.1:1/events.txt");
+        assertTrue(reply.contains("Loading URLs is turned off"), reply);
+    }
+
+    @Test
+    void loadsOnlyUrlsUnderTheAllowedPrefixes() throws Exception {
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        serve(http, "/data/events.txt", 200, "6 March 2031; 1 pm; From the web\n6 March 2031; 2 pm; Also from the web\n");
+        serve(http, "/private.txt", 200, "7 March 2031; 1 pm; Not allowed\n");
+        serve(http, "/data/moved.txt", 302, "");
+        http.start();
+        try {
+            String base = "http://127.0.0.1:" + http.getAddress().getPort();
+            ServerConfig config = config();
+            config.bulkloadUrls = List.of(base + "/data/");
+            TomBrophy_Server server = new TomBrophy_Server(config);
+            server.openStore();
+
+            String reply = server.handleLine("bulkload; " + base + "/data/events.txt");
+            assertTrue(reply.contains(": 2 added, 0 unchanged, 0 skipped"), reply);
+            for (String url : List.of(base + "/private.txt", base + "/data/../private.txt",
+                    base + "/data/%2e%2e/private.txt", base + "/database.txt",
+                    "http://localhost:" + http.getAddress().getPort() + "/data/events.txt")) {
+                reply = server.handleLine("bulkload; " + url);
+                assertTrue(reply.contains("URLs to load must be under"), url + ": " + reply);
+            }
+            reply = server.handleLine("bulkload; " + base + "/data/moved.txt");
+            assertTrue(reply.contains("HTTP 302 (redirects aren't followed)"), reply);
+            assertEquals("no events", server.handleLine("list; 7 March 2031"));
+        } finally {
+            http.stop(0);
+        }
+    }
+
+    @Test
+    void urlsAreMatchedParsedNotAsText() throws Exception {
+        List<String> allowed = List.of("https://data.example.com/events", "http://files.example.com:8080/");
+        assertTrue(BulkLoader.isAllowedUrl(new URI("https://data.example.com/events/march.txt"), allowed));
+        assertTrue(BulkLoader.isAllowedUrl(new URI("HTTPS://DATA.example.com:443/events/a/b.txt"), allowed));
+        assertTrue(BulkLoader.isAllowedUrl(new URI("http://files.example.com:8080/any.txt"), allowed));
+        assertFalse(BulkLoader.isAllowedUrl(new URI("https://data.example.com.evil.net/events/x.txt"), allowed));
+        assertFalse(BulkLoader.isAllowedUrl(new URI("https://data.example.com/eventsx/x.txt"), allowed));
+        assertFalse(BulkLoader.isAllowedUrl(new URI("http://data.example.com/events/x.txt"), allowed));
+        assertFalse(BulkLoader.isAllowedUrl(new URI("https://user@data.example.com/events/x.txt"), allowed));
+        assertFalse(BulkLoader.isAllowedUrl(new URI("http://files.example.com/any.txt"), allowed));
+        assertFalse(BulkLoader.isUrlPrefix("ftp://files.example.com/"));
+        assertFalse(BulkLoader.isUrlPrefix("files.example.com/events"));
+    }
+
+    private static void serve(HttpServer http, String path, int status, String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        http.createContext(path, exchange -> {
+            if (status == 302) {
+                exchange.getResponseHeaders().add("Location", "/private.txt");
+            }
+            exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        });
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The binary snapshot comes back exactly as written, and the next snapshot can
+ * be moved over the file straight after it was loaded, the way compaction does.
+ *
+ * @author tombr
+ */
+class EventSnapshotTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void binarySnapshotCanBeReplacedAfterLoading() throws Exception {
+        Path snap = dir.resolve("events.snap");
+        TreeMap<String, NavigableSet<Event>> first = board(300);
+        EventSnapshot.writeBinary(snap, first.values());
+
+        assertTrue(EventSnapshot.isBinary(snap));
+        assertEquals(lines(first), read(snap));
+
+        TreeMap<String, NavigableSet<Event>> second = board(500);
+        second.get("3 March 2031").add(new Event("3 March 2031", "7:30 pm", "Added after the load"));
+        EventSnapshot.writeBinary(snap, second.values());
+        assertEquals(lines(second), read(snap));
+    }
+
+    // count events over 1-10 March 2031, a few sharing descriptions
+    private static TreeMap<String, NavigableSet<Event>> board(int count) {
+        TreeMap<String, NavigableSet<Event>> days = new TreeMap<>(Comparator.comparing(EventDates::parseDate));
+        for (int i = 0; i < count; i++) {
+            String date = (1 + i % 10) + " March 2031";
+            days.computeIfAbsent(date, d -> new TreeSet<>(Event.BY_TIME))
+                .add(new Event(date, (1 + i % 12) + " pm", i % 7 == 0 ? "Standup" : "Event " + i));
+        }
+        return days;
+    }
+
+    private static List<String> lines(Map<String, NavigableSet<Event>> days) {
+        List<String> lines = new ArrayList<>();
+        for (NavigableSet<Event> day : days.values()) {
+            for (Event e : day) {
+                lines.add(e.date + "; " + e.time + "; " + e.description);
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> read(Path snap) throws Exception {
+        List<String> lines = new ArrayList<>();
+        EventSnapshot.read(snap, e -> lines.add(e.date + "; " + e.time + "; " + e.description));
+        return lines;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Many clients adding, removing and listing on the same few days at once. No
+ * update may be lost, and a restart (snapshot plus journal replay) has to come
+ * back with exactly the same board.
+ *
+ * @author tombr
+ */
+class EventStoreConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int EVENTS_PER_THREAD = 400;
+    private static final String[] DAYS = {"3 March 2031", "4 March 2031", "5 March 2031", "6 March 2031", "7 March 2031"};
+
+    @TempDir
+    Path dir;
+
+    private ServerConfig config() {
+        ServerConfig config = new ServerConfig();
+        config.eventsFile = dir.resolve("events.txt").toString();
+        config.journalFile = dir.resolve("events.journal").toString();
+        // Small enough that snapshots are taken while the writers are still going
+        config.compactRecords = 300;
+        config.compactSeconds = 0;
+        return config;
+    }
+
+    @Test
+    void concurrentAddRemoveListLosesNothingAndReplaysTheSame() throws Exception {
+        TomBrophy_Server server = new TomBrophy_Server(config());
+        server.openStore();
+
+        // What each day should hold at the end: every thread's events, less every third one
+        Map<String, Set<Event>> expected = new TreeMap<>();
+        for (String day : DAYS) {
+            expected.put(day, new TreeSet<>(Event.BY_TIME));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            for (int i = 0; i < EVENTS_PER_THREAD; i++) {
+                if (i % 3 != 0) {
+                    Event e = event(thread, i);
+                    expected.get(e.date).add(e);
+                }
+            }
+            done.add(pool.submit(() -> {
+                go.await();
+                for (int i = 0; i < EVENTS_PER_THREAD; i++) {
+                    Event e = event(thread, i);
+                    String added = server.handleLine("add; " + e.date + "; " + e.time + "; " + e.description);
+                    assertTrue(added.contains(e.description), added);
+                    server.handleLine("list; " + DAYS[(thread + i) % DAYS.length]);
+                    if (i % 3 == 0) {
+                        String removed = server.handleLine("remove; " + e.date + "; " + e.time + "; " + e.description);
+                        assertFalse(removed.startsWith("Error") || removed.startsWith("ERROR"), removed);
+                    }
+                }
+                return null;
+            }));
+        }
+        go.countDown();
+        for (Future<?> f : done) {
+            f.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        Map<String, String> board = new TreeMap<>();
+        for (String day : DAYS) {
+            String listed = server.handleLine("list; " + day);
+            assertEquals(server.formatEventList(expected.get(day)), listed, day);
+            board.put(day, listed);
+        }
+        server.closeStore();
+
+        // The last snapshot plus whatever the journal has since
+        TomBrophy_Server restarted = new TomBrophy_Server(config());
+        restarted.openStore();
+        try {
+            for (String day : DAYS) {
+                assertEquals(board.get(day), restarted.handleLine("list; " + day), day);
+            }
+        } finally {
+            restarted.closeStore();
+        }
+    }
+
+    // Unique per thread and index, spread over the shared days and the hours of the day
+    private static Event event(int thread, int i) {
+        String day = DAYS[i % DAYS.length];
+        int minute = (thread * EVENTS_PER_THREAD + i) % (24 * 60);
+        String time = String.format("%d:%02d %s", minute / 60 % 12 == 0 ? 12 : minute / 60 % 12, minute % 60,
+                minute < 12 * 60 ? "am" : "pm");
+        return new Event(day, time, "Client " + thread + " event " + i);
+    }
+}
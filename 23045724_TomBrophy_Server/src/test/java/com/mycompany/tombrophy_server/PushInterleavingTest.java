@@ -0,0 +1,132 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A connection subscribed to a day keeps listing it while other connections
+ * keep changing it. Pushes and list replies share the one socket, so every
+ * line it reads has to be a whole push or a whole reply, never one run into
+ * the other.
+ *
+ * @author tombr
+ */
+class PushInterleavingTest {
+    private static final String DAY = "5 March 2031";
+    private static final int CHANGERS = 4;
+    private static final int CHANGES = 1000;
+    private static final int LISTS = 6000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void pushesNeverLandInsideAReply() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.eventsFile = dir.resolve("events.txt").toString();
+        config.journalFile = dir.resolve("events.journal").toString();
+        config.snapshotFile = dir.resolve("events.snap").toString();
+        try (ServerSocket probe = new ServerSocket(0)) {
+            config.port = probe.getLocalPort();
+        }
+        Thread server = new Thread(new TomBrophy_Server(config)::start, "server");
+        server.setDaemon(true);
+        server.start();
+
+        try (Socket listener = connect(config.port);
+             BufferedReader in = reader(listener);
+             PrintWriter out = writer(listener)) {
+            in.readLine();
+            out.println("subscribe; " + DAY);
+            assertEquals("no events", in.readLine());
+
+            ExecutorService pool = Executors.newFixedThreadPool(CHANGERS + 1);
+            List<Future<?>> done = new ArrayList<>();
+            for (int c = 0; c < CHANGERS; c++) {
+                int changer = c;
+                done.add(pool.submit(() -> {
+                    try (Socket s = connect(config.port);
+                         BufferedReader changeIn = reader(s);
+                         PrintWriter changeOut = writer(s)) {
+                        changeIn.readLine();
+                        // Each event is taken off again, so the day (and every reply) stays short
+                        for (int i = 0; i < CHANGES; i++) {
+                            String event = DAY + "; " + (1 + i % 12) + " pm; Event " + changer + "-" + i;
+                            changeOut.println("add; " + event);
+                            assertFalse(changeIn.readLine().startsWith("ERROR"));
+                            changeOut.println("remove; " + event);
+                            assertFalse(changeIn.readLine().startsWith("ERROR"));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            // All the lists at once, so the connection is busy with replies while the pushes come
+            done.add(pool.submit(() -> {
+                for (int i = 0; i < LISTS; i++) {
+                    out.println("#" + i + " list; " + DAY);
+                }
+                return null;
+            }));
+
+            int replies = 0;
+            int pushes = 0;
+            while (replies < LISTS) {
+                String line = in.readLine();
+                assertNotNull(line);
+                assertFalse(line.indexOf("PUSH ", 1) >= 0, line);
+                if (line.startsWith("PUSH ")) {
+                    assertTrue(line.startsWith("PUSH " + DAY + "; "), line);
+                    pushes++;
+                } else {
+                    String tag = "#" + replies + " ";
+                    assertTrue(line.equals(tag + "no events") || line.startsWith(tag + DAY + "; "), line);
+                    replies++;
+                }
+            }
+            for (Future<?> f : done) {
+                f.get(60, TimeUnit.SECONDS);
+            }
+            pool.shutdown();
+            assertTrue(pushes > 0, "the subscriber should have been pushed some changes");
+        }
+    }
+
+    private static Socket connect(int port) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (true) {
+            try {
+                return new Socket(InetAddress.getLoopbackAddress(), port);
+            } catch (ConnectException e) {
+                if (System.nanoTime() > deadline) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ie) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    private static BufferedReader reader(Socket s) throws IOException {
+        return new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static PrintWriter writer(Socket s) throws IOException {
+        return new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), true);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.net.*;
+import java.util.regex.*;
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Batches and bulkloads pay for every line, so a client can't get more than
+ * eventboard.writesPerSecond writes through by packing them into big requests.
+ *
+ * @author tombr
+ */
+class RateLimiterTest {
+    private static final Pattern WAIT = Pattern.compile("Try again in (\\d+) ms");
+
+    private RateLimiter limiter;
+    private InetAddress client;
+
+    @BeforeEach
+    void setUp() throws UnknownHostException {
+        ServerConfig config = new ServerConfig();
+        config.writesPerSecond = 100;
+        limiter = new RateLimiter(config);
+        client = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+    }
+
+    @Test
+    void aBigBatchIsPaidForByTheWaitAfterIt() throws Exception {
+        limiter.acquire(client, Command.Action.BATCH, 10_000);
+
+        long wait = refusedWait(Command.Action.ADD);
+        // 9,900 writes over the bucket at 100 a second
+        assertTrue(wait > 98_000 && wait <= 99_000, "waited " + wait);
+        assertEquals(1, limiter.throttled(RateLimiter.Kind.WRITE));
+    }
+
+    @Test
+    void bulkloadLinesAreChargedAsTheyAreLoaded() throws Exception {
+        limiter.acquire(client, Command.Action.BULKLOAD, 1);
+        limiter.charge(client, Command.Action.BULKLOAD, 5_000);
+
+        long wait = refusedWait(Command.Action.BATCH);
+        assertTrue(wait > 48_000 && wait <= 49_100, "waited " + wait);
+    }
+
+    @Test
+    void eachRequestGetsInWhileTheBucketLasts() throws Exception {
+        int admitted = 0;
+        try {
+            while (admitted < 1_000) {
+                limiter.acquire(client, Command.Action.ADD, 1);
+                admitted++;
+            }
+        } catch (InvalidCommandException e) {
+            assertEquals(InvalidCommandException.Kind.THROTTLED, e.kind());
+        }
+        // The bucket's 100, and whatever it earned while the loop ran
+        assertTrue(admitted >= 100 && admitted < 110, "admitted " + admitted);
+        // Reads have no limit here, other addresses have their own bucket, and calls
+        // without a connection aren't limited at all
+        limiter.acquire(client, Command.Action.LIST, 1);
+        limiter.acquire(InetAddress.getByAddress(new byte[] {10, 0, 0, 2}), Command.Action.ADD, 1);
+        limiter.acquire(null, Command.Action.BATCH, 10_000);
+    }
+
+    private long refusedWait(Command.Action action) {
+        InvalidCommandException e = assertThrows(InvalidCommandException.class, () -> limiter.acquire(client, action, 1));
+        assertEquals(InvalidCommandException.Kind.THROTTLED, e.kind());
+        Matcher m = WAIT.matcher(e.getMessage());
+        assertTrue(m.find(), e.getMessage());
+        return Long.parseLong(m.group(1));
+    }
+}
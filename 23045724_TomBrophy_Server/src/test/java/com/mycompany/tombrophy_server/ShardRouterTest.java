@@ -0,0 +1,139 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.mycompany.tombrophy_server;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A router in front of three shards in this JVM, against one plain server
+ * given the same commands. Whatever range, upcoming and search gather from the
+ * shards has to come back exactly as the single server would have answered,
+ * including for descriptions that look like the reply's own separators.
+ *
+ * @author tombr
+ */
+class ShardRouterTest {
+    private static final int SHARDS = 3;
+
+    @TempDir
+    Path dir;
+
+    private final List<String> shards = new ArrayList<>();
+    private int routerPort;
+    private TomBrophy_Server single;
+
+    @BeforeEach
+    void start() throws Exception {
+        for (int i = 0; i < SHARDS; i++) {
+            ServerConfig config = config(dir.resolve("shard-" + i));
+            config.port = freePort();
+            Thread shard = new Thread(new TomBrophy_Server(config)::start, "shard-" + i);
+            shard.setDaemon(true);
+            shard.start();
+            shards.add("localhost:" + config.port);
+        }
+        ServerConfig routerConfig = new ServerConfig();
+        routerConfig.port = freePort();
+        routerConfig.shards = shards;
+        Thread router = new Thread(new ShardRouter(routerConfig)::start, "router");
+        router.setDaemon(true);
+        router.start();
+        routerPort = routerConfig.port;
+        for (String shard : shards) {
+            awaitListening(shard);
+        }
+        awaitListening("localhost:" + routerPort);
+
+        single = new TomBrophy_Server(config(dir.resolve("single")));
+        single.openStore();
+    }
+
+    @Test
+    void gatheredRepliesMatchASingleServer() throws Exception {
+        List<String> adds = new ArrayList<>();
+        for (int d = 1; d <= 12; d++) {
+            adds.add("add; " + d + " March 2031; 9 am; Breakfast " + d);
+            adds.add("add; " + d + " March 2031; 6 pm; Dinner, then 3 May 2026 | notes");
+        }
+        // Descriptions that read like a day break and an event break
+        adds.add("add; 4 March 2031; 7 pm; Minutes | 3 May 2026; carried over");
+        adds.add("add; 4 March 2031; 8 pm; Agenda; 7 pm, talks");
+        adds.add("add; 11 March 2031; 10:30; Unusual time");
+
+        ConsistentHashRing ring = new ConsistentHashRing(shards, new ServerConfig().virtualNodes);
+        Set<Integer> owners = new HashSet<>();
+        for (int d = 1; d <= 12; d++) {
+            owners.add(ring.shardFor(EventDates.parseDate(d + " March 2031").toEpochDay()));
+        }
+        assertTrue(owners.size() > 1, "the days should be spread over the shards");
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), routerPort);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            assertTrue(in.readLine().startsWith("WELCOME"));
+            for (String add : adds) {
+                assertEquals(single.handleLine(add), ask(in, out, add));
+            }
+            for (String command : List.of(
+                    "range; 1 March 2031; 31 March 2031",
+                    "range; 3 March 2031; 5 March 2031",
+                    "range; 1 April 2031; 30 April 2031",
+                    "upcoming; 7",
+                    "upcoming; 100",
+                    "search; 3 May 2026",
+                    "search; 7 pm; 2",
+                    "range; 5 March 2031; 1 March 2031")) {
+                String expected = single.handleLine(command);
+                assertEquals(expected, ask(in, out, command), command);
+            }
+            String range = ask(in, out, "range; 1 March 2031; 31 March 2031");
+            assertTrue(range.startsWith("1 March 2031; 9 am, Breakfast 1; 6 pm, Dinner, then 3 May 2026 | notes | 2 March 2031; "), range);
+            assertTrue(range.contains("4 March 2031; 9 am, Breakfast 4; 6 pm, Dinner, then 3 May 2026 | notes; "
+                    + "7 pm, Minutes | 3 May 2026; carried over; 8 pm, Agenda; 7 pm, talks | 5 March 2031; "), range);
+        }
+    }
+
+    private static String ask(BufferedReader in, PrintWriter out, String line) throws IOException {
+        out.println(line);
+        return in.readLine();
+    }
+
+    private static ServerConfig config(Path home) throws IOException {
+        Files.createDirectories(home);
+        ServerConfig config = new ServerConfig();
+        config.eventsFile = home.resolve("events.txt").toString();
+        config.journalFile = home.resolve("events.journal").toString();
+        config.snapshotFile = home.resolve("events.snap").toString();
+        return config;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+
+    private static void awaitListening(String address) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (true) {
+            try {
+                ShardRouter.connect(address).close();
+                return;
+            } catch (ConnectException e) {
+                assertTrue(System.nanoTime() < deadline, address + " did not start");
+                Thread.sleep(50);
+            }
+        }
+    }
+}